@@ -8,6 +8,8 @@ import android.content.DialogInterface;
 import android.content.res.TypedArray;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.KeyEvent;
@@ -39,17 +41,20 @@ import com.obsez.android.lib.filechooser.internals.FileUtil;
 import com.obsez.android.lib.filechooser.internals.RegexFileFilter;
 import com.obsez.android.lib.filechooser.permissions.PermissionsUtil;
 import com.obsez.android.lib.filechooser.tool.DirAdapter;
+import com.obsez.android.lib.filechooser.tool.FileEntry;
 import com.obsez.android.lib.filechooser.tool.RootFile;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import static androidx.appcompat.widget.ListPopupWindow.MATCH_PARENT;
@@ -490,13 +495,13 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
             builder.setOnCancelListener(_cancelListener);
         }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && _onDismissListener != null) {
-            builder.setOnDismissListener(_onDismissListener);
-        }
-
         builder.setOnKeyListener(new keyListener(this));
 
         _alertDialog = builder.create();
+        _alertDialog.setOnDismissListener(dialog -> {
+            cancelListing();
+            if (_onDismissListener != null) _onDismissListener.onDismiss(dialog);
+        });
 
         _alertDialog.setCanceledOnTouchOutside(this._cancelOnTouchOutside);
         _alertDialog.setOnShowListener(new onShowListener(this));
@@ -697,16 +702,20 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
 
     private Set<String> roots = null;
 
-    private void listDirs() {
+    /**
+     * Set up the entries leading to other directories and the title, the files are listed by
+     * {@link #startListing(File)}
+     *
+     * @return true if the current directory should be listed
+     */
+    private boolean listDirs() {
         _entries.clear();
+        _dirCount = 0;
 
         if (_currentDir == null) {
             _currentDir = new File(FileUtil.getStoragePath(_context, false));
         }
 
-        // Get files
-        File[] files = _currentDir.listFiles(_fileFilter);
-
         // Add the ".." entry
         LinkedHashMap<String, String> storagePaths = FileUtil.getStoragePaths(_context);
         Set<String> storageKeys = storagePaths.keySet();
@@ -727,30 +736,15 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
             _entries.add(new RootFile(_currentDir.getParentFile().getAbsolutePath(), ".."));
             displayPath = true;
         }
+        _headerCount = _entries.size();
 
-        if (files == null || !withinVolume) {
+        if (!withinVolume) {
             if (_alertDialog != null && _alertDialog.isShowing() && _displayPath) {
                 displayPath(null);
             }
-            return;
+            return false;
         }
 
-        List<File> dirList = new LinkedList<>();
-        List<File> fileList = new LinkedList<>();
-
-        for (File f : files) {
-            if (f.isDirectory()) {
-                dirList.add(f);
-            } else {
-                fileList.add(f);
-            }
-        }
-
-        sortByName(dirList);
-        sortByName(fileList);
-        _entries.addAll(dirList);
-        _entries.addAll(fileList);
-
         // #45: setup dialog title too
         if (_alertDialog != null && !_disableTitle) {
             if (_followDir) {
@@ -781,10 +775,91 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
                 displayPath(null);
             }
         }
+        return true;
     }
 
-    private void sortByName(List<File> list) {
-        Collections.sort(list, (f1, f2) -> f1.getName().toLowerCase().compareTo(f2.getName().toLowerCase()));
+    /**
+     * List the directory on a worker thread. Names are sorted before any file is touched, then the
+     * files are filtered and checked in chunks that are added to the adapter as they are ready,
+     * directories in front of files.
+     */
+    private void startListing(final File dir) {
+        final int generation = ++_listingGeneration;
+        final FileFilter filter = _fileFilter;
+        _listing = sListingExecutor.submit(() -> {
+            String[] names = dir.list();
+            if (names == null) {
+                _mainHandler.post(() -> {
+                    if (generation != _listingGeneration) return;
+                    _listing = null;
+                    if (_alertDialog != null && _alertDialog.isShowing() && _displayPath) {
+                        displayPath(null);
+                    }
+                    applyPendingSelection();
+                });
+                return;
+            }
+            Arrays.sort(names, (n1, n2) -> n1.toLowerCase().compareTo(n2.toLowerCase()));
+
+            List<File> dirs = new ArrayList<>();
+            List<File> files = new ArrayList<>();
+            // The first chunk is small so the first screenful shows up right away
+            int chunkEnd = FIRST_CHUNK_SIZE;
+            for (int i = 0; i < names.length; i++) {
+                if (Thread.currentThread().isInterrupted()) return;
+                // Attributes are read once here, filters and the adapter use the snapshot
+                File file = FileEntry.create(dir, names[i]);
+                if (filter == null || filter.accept(file)) {
+                    if (file.isDirectory()) {
+                        dirs.add(file);
+                    } else {
+                        files.add(file);
+                    }
+                }
+                if (i + 1 == chunkEnd && i + 1 < names.length) {
+                    postChunk(generation, dirs, files, false);
+                    dirs = new ArrayList<>();
+                    files = new ArrayList<>();
+                    chunkEnd += CHUNK_SIZE;
+                }
+            }
+            postChunk(generation, dirs, files, true);
+        });
+    }
+
+    private void postChunk(final int generation, final List<File> dirs, final List<File> files, final boolean last) {
+        _mainHandler.post(() -> {
+            // Listing of a directory the user has already left
+            if (generation != _listingGeneration) return;
+            int index = _headerCount + _dirCount;
+            _entries.addAll(index, dirs);
+            _entries.addAll(files);
+            _dirCount += dirs.size();
+            _adapter.addEntries(index, dirs, files);
+            if (last) _listing = null;
+            applyPendingSelection();
+        });
+    }
+
+    private void cancelListing() {
+        _listingGeneration++;
+        if (_listing != null) {
+            _listing.cancel(true);
+            _listing = null;
+        }
+    }
+
+    /**
+     * Scroll to the remembered position once it is loaded. Directories arrive in name order,
+     * so a position among them does not move once it is there.
+     */
+    private void applyPendingSelection() {
+        if (_pendingSelection < 0 || _list == null) return;
+        if (_listing != null && _pendingSelection >= _headerCount + _dirCount) return;
+        final int position = _pendingSelection;
+        _pendingSelection = -1;
+        _list.setSelection(position);
+        _list.post(() -> _list.setSelection(position));
     }
 
     void createNewDirectory(String name) {
@@ -811,7 +886,7 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
         if (file instanceof RootFile) {
             if (_folderNavUpCB == null) _folderNavUpCB = _defaultNavUpCB;
             /*if (_folderNavUpCB.canUpTo(file))*/ {
-                _currentDir = file;
+                _currentDir = toFile(file);
                 _chooseMode = _chooseMode == CHOOSE_MODE_DELETE ? CHOOSE_MODE_NORMAL : _chooseMode;
                 if (_deleteModeIndicator != null) _deleteModeIndicator.run();
                 lastSelected = false;
@@ -825,13 +900,13 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
                     if (file.isDirectory()) {
                         if (_folderNavToCB == null) _folderNavToCB = _defaultNavToCB;
                         if (_folderNavToCB.canNavigate(file)) {
-                            _currentDir = file;
+                            _currentDir = toFile(file);
                             scrollTo = 0;
                             _adapter.getIndexStack().push(position);
                         }
                     } else if ((!_dirOnly) && _result != null) {
                         _alertDialog.dismiss();
-                        _result.onChoosePath(file.getAbsolutePath(), file);
+                        _result.onChoosePath(file.getAbsolutePath(), toFile(file));
                         if (_enableMultiple) {
                             _result.onChoosePath(_currentDir.getAbsolutePath(), _currentDir);
                         }
@@ -843,7 +918,7 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
                     if (file.isDirectory()) {
                         if (_folderNavToCB == null) _folderNavToCB = _defaultNavToCB;
                         if (_folderNavToCB.canNavigate(file)) {
-                            _currentDir = file;
+                            _currentDir = toFile(file);
                             scrollTo = 0;
                             _adapter.getIndexStack().push(position);
                         }
@@ -853,13 +928,13 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
                             _chooseMode = CHOOSE_MODE_NORMAL;
                             _positiveBtn.setVisibility(View.INVISIBLE);
                         }
-                        _result.onChoosePath(file.getAbsolutePath(), file);
+                        _result.onChoosePath(file.getAbsolutePath(), toFile(file));
                         return;
                     }
                     break;
                 case CHOOSE_MODE_DELETE:
                     try {
-                        FileUtil.deleteFileRecursively(file);
+                        FileUtil.deleteFileRecursively(toFile(file));
                     } catch (IOException e) {
                         e.printStackTrace();
                         Toast.makeText(_context, e.getMessage(), Toast.LENGTH_LONG).show();
@@ -873,11 +948,17 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
                     return;
             }
         }
+        _pendingSelection = scrollTo;
         refreshDirs();
-        if (scrollTo != -1) {
-            _list.setSelection(scrollTo);
-            _list.post(() -> _list.setSelection(scrollTo));
-        }
+        applyPendingSelection();
+    }
+
+    /**
+     * Listed entries keep the attributes read when the directory was listed, everything handed out
+     * or kept beyond the listing is a plain file
+     */
+    static File toFile(File entry) {
+        return new File(entry.getPath());
     }
 
     @Override
@@ -887,7 +968,7 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
             return true;
         }
         if (_adapter.isSelected(position)) return true;
-        _result.onChoosePath(file.getAbsolutePath(), file);
+        _result.onChoosePath(file.getAbsolutePath(), toFile(file));
         _adapter.selectItem(position);
         _chooseMode = CHOOSE_MODE_SELECT_MULTIPLE;
         _positiveBtn.setVisibility(View.VISIBLE);
@@ -901,8 +982,10 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
     }
 
     void refreshDirs() {
-        listDirs();
+        cancelListing();
+        boolean list = listDirs();
         _adapter.setEntries(_entries);
+        if (list) startListing(_currentDir);
     }
 
     public void dismiss() {
@@ -923,6 +1006,13 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
 
     List<File> _entries = new ArrayList<>();
     DirAdapter _adapter;
+    // Entries in front of the listed directories, and the number of directories listed so far
+    private int _headerCount;
+    private int _dirCount;
+    private Future<?> _listing;
+    private int _listingGeneration;
+    private int _pendingSelection = -1;
+    private final Handler _mainHandler = new Handler(Looper.getMainLooper());
     File _currentDir;
     Context _context;
     AlertDialog _alertDialog;
@@ -1015,6 +1105,10 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
 
     OnBackPressedListener _onBackPressed;
 
+    private static final int FIRST_CHUNK_SIZE = 32;
+    private static final int CHUNK_SIZE = 256;
+    private static final ExecutorService sListingExecutor = Executors.newSingleThreadExecutor();
+
     private final static String sSdcardStorage = ".. SDCard Storage";
     private final static String sPrimaryStorage = ".. Primary Storage";
 
@@ -33,8 +33,9 @@ public class ExtFileFilter implements FileFilter {
             }
         }
 
+        final boolean isDirectory = pathname.isDirectory();
         if (m_onlyDirectory) {
-            if (!pathname.isDirectory()) {
+            if (!isDirectory) {
                 return false;
             }
         }
@@ -43,7 +44,7 @@ public class ExtFileFilter implements FileFilter {
             return true;
         }
 
-        if (pathname.isDirectory()) {
+        if (isDirectory) {
             return true;
         }
 
@@ -46,8 +46,9 @@ public class RegexFileFilter implements FileFilter {
             }
         }
 
+        final boolean isDirectory = pathname.isDirectory();
         if (m_onlyDirectory) {
-            if (!pathname.isDirectory()) {
+            if (!isDirectory) {
                 return false;
             }
         }
@@ -56,7 +57,7 @@ public class RegexFileFilter implements FileFilter {
             return true;
         }
 
-        if (pathname.isDirectory()) {
+        if (isDirectory) {
             return true;
         }
 
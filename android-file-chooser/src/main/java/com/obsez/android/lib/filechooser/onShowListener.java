@@ -525,7 +525,8 @@ class onShowListener implements DialogInterface.OnShowListener {
 
                             if (_c.get()._chooseMode == CHOOSE_MODE_SELECT_MULTIPLE) {
                                 boolean success = true;
-                                for (File file : _c.get()._adapter.getSelected()) {
+                                for (File entry : _c.get()._adapter.getSelected()) {
+                                    File file = ChooserDialog.toFile(entry);
                                     _c.get()._result.onChoosePath(file.getAbsolutePath(), file);
                                     if (success) {
                                         try {
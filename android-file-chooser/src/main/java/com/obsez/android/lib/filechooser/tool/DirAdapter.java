@@ -103,11 +103,12 @@ public class DirAdapter extends ArrayAdapter<File> {
         tvDate.setVisibility(View.VISIBLE);
         tvName.setText(file.getName());
         Drawable icon;
+        final long lastModified = file.lastModified();
         if (file.isDirectory()) {
             icon = _defaultFolderIcon.getConstantState().newDrawable();
             tvSize.setText("");
-            if (file.lastModified() != 0L) {
-                tvDate.setText(_formatter.format(new Date(file.lastModified())));
+            if (lastModified != 0L) {
+                tvDate.setText(_formatter.format(new Date(lastModified)));
             } else {
                 tvDate.setVisibility(View.GONE);
             }
@@ -124,7 +125,7 @@ public class DirAdapter extends ArrayAdapter<File> {
             }
             icon = d.getConstantState().newDrawable();
             tvSize.setText(FileUtil.getReadableFileSize(file.length()));
-            tvDate.setText(_formatter.format(new Date(file.lastModified())));
+            tvDate.setText(_formatter.format(new Date(lastModified)));
         }
         if (file.isHidden()) {
             final PorterDuffColorFilter filter = new PorterDuffColorFilter(0x80ffffff,
@@ -178,6 +179,20 @@ public class DirAdapter extends ArrayAdapter<File> {
         //_hoveredIndex = -1;
     }
 
+    /**
+     * Insert entries at a position and append more at the end, with a single change notification
+     */
+    public void addEntries(int index, List<File> inserted, List<File> appended) {
+        setNotifyOnChange(false);
+        for (File file : inserted) {
+            insert(file, index++);
+        }
+        for (File file : appended) {
+            add(file);
+        }
+        notifyDataSetChanged();
+    }
+
     @Override
     public long getItemId(int position) {
         try {
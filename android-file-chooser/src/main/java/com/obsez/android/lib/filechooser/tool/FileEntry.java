@@ -0,0 +1,61 @@
+package com.obsez.android.lib.filechooser.tool;
+
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A file with its attributes read once when the directory is listed, so filters, sorting and
+ * binding the row don't stat the file again and again.
+ */
+public final class FileEntry extends File {
+    private final boolean isDirectory;
+    private final long length;
+    private final long lastModified;
+
+    private FileEntry(File parent, String name, boolean isDirectory, long length, long lastModified) {
+        super(parent, name);
+        this.isDirectory = isDirectory;
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    public static FileEntry create(File parent, String name) {
+        File file = new File(parent, name);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // One stat instead of one per attribute
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                return new FileEntry(parent, name, attributes.isDirectory(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis());
+            } catch (IOException | SecurityException e) {
+                // Broken link or not accessible, same as File would report
+                return new FileEntry(parent, name, false, 0L, 0L);
+            }
+        }
+        return new FileEntry(parent, name, file.isDirectory(), file.length(), file.lastModified());
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return isDirectory;
+    }
+
+    @Override
+    public boolean isHidden() {
+        return getName().startsWith(".");
+    }
+
+    @Override
+    public long length() {
+        return isDirectory ? 0L : length;
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+}
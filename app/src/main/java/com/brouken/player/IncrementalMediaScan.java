@@ -0,0 +1,233 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Asks the media scanner to scan only the directories that changed since the last scan.
+ * Directory modification times are remembered between runs: a directory whose time is unchanged
+ * has the same entries, so it is not listed again and only its known subdirectories are checked.
+ * A volume is scanned as a whole only the first time or when its MediaStore generation went back,
+ * which means the MediaStore database was rebuilt. Scans are at most every few minutes.
+ */
+@RequiresApi(api = Build.VERSION_CODES.R)
+final class IncrementalMediaScan {
+    private static final String TAG = "IncrementalMediaScan";
+
+    private static final long MIN_SCAN_INTERVAL_MS = 10 * 60 * 1000;
+    private static final String STATE_FILE = "media_scan_state";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static long lastRequestTime = -MIN_SCAN_INTERVAL_MS;
+
+    private static class VolumeState {
+        final long generation;
+        final Map<String, Long> directoryTimes = new HashMap<>();
+
+        VolumeState(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    private IncrementalMediaScan() {
+    }
+
+    static synchronized void scanIfNeeded(final Context context) {
+        final long now = SystemClock.elapsedRealtime();
+        if (now - lastRequestTime < MIN_SCAN_INTERVAL_MS)
+            return;
+        lastRequestTime = now;
+        final Context appContext = context.getApplicationContext();
+        executor.execute(() -> scan(appContext));
+    }
+
+    private static void scan(final Context context) {
+        final File stateFile = new File(context.getNoBackupFilesDir(), STATE_FILE);
+        final Map<String, VolumeState> previousVolumes = new HashMap<>();
+        final long previousScanTime = load(stateFile, previousVolumes);
+        // The interval also applies across process restarts
+        if (System.currentTimeMillis() - previousScanTime < MIN_SCAN_INTERVAL_MS)
+            return;
+
+        final long startTime = SystemClock.elapsedRealtime();
+        final Map<String, VolumeState> volumes = new HashMap<>();
+        final List<String> changedDirectories = new ArrayList<>();
+        StorageManager storageManager = (StorageManager) context.getSystemService(Context.STORAGE_SERVICE);
+        for (StorageVolume volume : storageManager.getStorageVolumes()) {
+            File root = volume.getDirectory();
+            String volumeName = volume.getMediaStoreVolumeName();
+            if (root == null || volumeName == null)
+                continue;
+            long generation;
+            try {
+                generation = MediaStore.getGeneration(context, volumeName);
+            } catch (IllegalArgumentException e) {
+                // Volume not known to MediaStore (yet)
+                continue;
+            }
+            VolumeState previous = previousVolumes.get(volumeName);
+            VolumeState current = new VolumeState(generation);
+            if (previous == null || generation < previous.generation) {
+                collect(root, Collections.<String, Long>emptyMap(), Collections.<String, List<String>>emptyMap(), current.directoryTimes, new ArrayList<>());
+                changedDirectories.add(root.getAbsolutePath());
+            } else {
+                collect(root, previous.directoryTimes, childrenOf(previous.directoryTimes), current.directoryTimes, changedDirectories);
+            }
+            volumes.put(volumeName, current);
+        }
+
+        final List<String> paths = withoutNested(changedDirectories);
+        if (!paths.isEmpty()) {
+            MediaScannerConnection.scanFile(context, paths.toArray(new String[0]), null, null);
+        }
+        Utils.log("Media scan of " + paths.size() + " directories requested after "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms");
+        save(stateFile, volumes);
+    }
+
+    /**
+     * Record the modification time of the directory and everything below, and report changed directories
+     */
+    private static void collect(File directory, Map<String, Long> previousTimes, Map<String, List<String>> previousChildren,
+                                Map<String, Long> times, List<String> changed) {
+        final String path = directory.getAbsolutePath();
+        final long lastModified = directory.lastModified();
+        // Gone, or not accessible
+        if (lastModified == 0)
+            return;
+        times.put(path, lastModified);
+
+        Long previousTime = previousTimes.get(path);
+        if (previousTime != null && previousTime == lastModified) {
+            // Same entries as last time, only subdirectories can have changed
+            List<String> children = previousChildren.get(path);
+            if (children != null) {
+                for (String child : children) {
+                    collect(new File(child), previousTimes, previousChildren, times, changed);
+                }
+            }
+            return;
+        }
+
+        changed.add(path);
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            // The media scanner skips hidden directories as well
+            if (!file.getName().startsWith(".") && file.isDirectory()) {
+                collect(file, previousTimes, previousChildren, times, changed);
+            }
+        }
+    }
+
+    private static Map<String, List<String>> childrenOf(Map<String, Long> directoryTimes) {
+        Map<String, List<String>> children = new HashMap<>();
+        for (String path : directoryTimes.keySet()) {
+            int separator = path.lastIndexOf('/');
+            if (separator <= 0)
+                continue;
+            String parent = path.substring(0, separator);
+            List<String> siblings = children.get(parent);
+            if (siblings == null) {
+                siblings = new ArrayList<>();
+                children.put(parent, siblings);
+            }
+            siblings.add(path);
+        }
+        return children;
+    }
+
+    /**
+     * Directories are scanned recursively, so a changed directory inside another one needs no request of its own
+     */
+    private static List<String> withoutNested(List<String> directories) {
+        List<String> sorted = new ArrayList<>(directories);
+        Collections.sort(sorted);
+        List<String> result = new ArrayList<>();
+        String last = null;
+        for (String path : sorted) {
+            if (last != null && path.startsWith(last + "/"))
+                continue;
+            result.add(path);
+            last = path;
+        }
+        return result;
+    }
+
+    /**
+     * @return time of the last scan or 0 if there is no saved state
+     */
+    private static long load(File stateFile, Map<String, VolumeState> volumes) {
+        if (!stateFile.exists())
+            return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            long scanTime = in.readLong();
+            int volumeCount = in.readInt();
+            for (int i = 0; i < volumeCount; i++) {
+                String volumeName = in.readUTF();
+                VolumeState volume = new VolumeState(in.readLong());
+                int directoryCount = in.readInt();
+                for (int j = 0; j < directoryCount; j++) {
+                    volume.directoryTimes.put(in.readUTF(), in.readLong());
+                }
+                volumes.put(volumeName, volume);
+            }
+            return scanTime;
+        } catch (IOException e) {
+            // Scan everything again
+            Log.w(TAG, "Error reading media scan state", e);
+            volumes.clear();
+            return 0;
+        }
+    }
+
+    private static void save(File stateFile, Map<String, VolumeState> volumes) {
+        // Write to a temporary file and rename so an interrupted write never leaves a truncated state
+        File tempFile = new File(stateFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(volumes.size());
+            for (Map.Entry<String, VolumeState> volume : volumes.entrySet()) {
+                out.writeUTF(volume.getKey());
+                out.writeLong(volume.getValue().generation);
+                out.writeInt(volume.getValue().directoryTimes.size());
+                for (Map.Entry<String, Long> directory : volume.getValue().directoryTimes.entrySet()) {
+                    out.writeUTF(directory.getKey());
+                    out.writeLong(directory.getValue());
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing media scan state", e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            tempFile.delete();
+        }
+    }
+}
@@ -1,37 +1,53 @@
 package com.brouken.player;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.text.format.DateUtils;
+import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.File;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
- * Adapter for displaying network video links and local files in the library
+ * Adapter for displaying network video links and local files in the library.
+ * Only a window of the items is handed to RecyclerView and it grows page by page while scrolling;
+ * changes are diffed in the background so rows update in place.
  */
-public class LibraryAdapter extends BaseAdapter {
+public class LibraryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     
     public static final int TYPE_HEADER = 0;
     public static final int TYPE_LOCAL_FILE = 1;
     public static final int TYPE_NETWORK_LINK = 2;
     
+    static final int PAGE_SIZE = 100;
+    
     private final Context context;
     private final LayoutInflater inflater;
-    private final List<Object> items; // Mixed list of headers, File objects, and NetworkVideoLink objects
+    private final ThumbnailLoader thumbnailLoader;
+    private final AsyncListDiffer<Object> differ;
     private final OnItemClickListener onItemClickListener;
     private final OnItemLongClickListener onItemLongClickListener;
+    private final int placeholderResId;
+    private final int cloudResId;
+    private final int selectableBackgroundResId;
+    // Mixed list of headers, LibraryEntry objects, and NetworkVideoLink objects
+    private Sections allItems = new Sections(Collections.<LibraryEntry>emptyList(), Collections.<NetworkVideoLink>emptyList());
+    private int pageLimit = PAGE_SIZE;
     
     public interface OnItemClickListener {
         void onLocalFileClick(File file);
@@ -44,42 +60,101 @@ public class LibraryAdapter extends BaseAdapter {
         boolean onNetworkLinkLongClick(NetworkVideoLink link);
     }
     
-    public LibraryAdapter(Context context, List<Object> items, 
+    private static final DiffUtil.ItemCallback<Object> DIFF_CALLBACK = new DiffUtil.ItemCallback<Object>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Object oldItem, @NonNull Object newItem) {
+            if (oldItem instanceof NetworkVideoLink && newItem instanceof NetworkVideoLink) {
+                return ((NetworkVideoLink) oldItem).getId().equals(((NetworkVideoLink) newItem).getId());
+            }
+            if (oldItem instanceof LibraryEntry && newItem instanceof LibraryEntry) {
+                return ((LibraryEntry) oldItem).getFile().equals(((LibraryEntry) newItem).getFile());
+            }
+            return oldItem.getClass() == newItem.getClass() && oldItem.equals(newItem);
+        }
+        
+        @Override
+        public boolean areContentsTheSame(@NonNull Object oldItem, @NonNull Object newItem) {
+            // Published links are never modified, a changed link is a new object
+            if (oldItem instanceof NetworkVideoLink) {
+                return oldItem == newItem;
+            }
+            return oldItem.equals(newItem);
+        }
+    };
+    
+    /**
+     * @param thumbnailLoader resolved once by the caller, getting it through StoreBootstrap may block
+     */
+    public LibraryAdapter(Context context,
+                         ThumbnailLoader thumbnailLoader,
                          OnItemClickListener clickListener, 
                          OnItemLongClickListener longClickListener) {
         this.context = context;
         this.inflater = LayoutInflater.from(context);
-        this.items = items;
+        this.thumbnailLoader = thumbnailLoader;
+        this.differ = new AsyncListDiffer<>(this, new AsyncDifferConfig.Builder<>(DIFF_CALLBACK).build());
         this.onItemClickListener = clickListener;
         this.onItemLongClickListener = longClickListener;
+        // Resolved once, getIdentifier is a slow lookup
+        this.placeholderResId = context.getResources().getIdentifier("ic_video_library_24dp", "drawable", context.getPackageName());
+        this.cloudResId = context.getResources().getIdentifier("ic_cloud_download_24dp", "drawable", context.getPackageName());
+        TypedValue outValue = new TypedValue();
+        context.getTheme().resolveAttribute(android.R.attr.selectableItemBackground, outValue, true);
+        this.selectableBackgroundResId = outValue.resourceId;
     }
     
-    @Override
-    public int getCount() {
-        return items.size();
+    /**
+     * Show the local files and network links, each section under a header when not empty.
+     * The lists are not copied, only the currently loaded pages are.
+     */
+    public void submit(List<LibraryEntry> localFiles, List<NetworkVideoLink> networkLinks) {
+        allItems = new Sections(localFiles, networkLinks);
+        submitPage();
     }
     
-    @Override
-    public Object getItem(int position) {
-        return items.get(position);
+    /**
+     * Replace the local files and keep the network links
+     */
+    public void submitLocalFiles(List<LibraryEntry> localFiles) {
+        submit(localFiles, allItems.networkLinks);
     }
     
-    @Override
-    public long getItemId(int position) {
-        return position;
+    /**
+     * Replace the network links and keep the local files
+     */
+    public void submitNetworkLinks(List<NetworkVideoLink> networkLinks) {
+        submit(allItems.localFiles, networkLinks);
+    }
+    
+    /**
+     * Load the next page if not everything is shown yet
+     */
+    public void loadMore() {
+        if (pageLimit >= allItems.size())
+            return;
+        pageLimit += PAGE_SIZE;
+        submitPage();
+    }
+    
+    private void submitPage() {
+        differ.submitList(new ArrayList<>(allItems.subList(0, Math.min(pageLimit, allItems.size()))));
+    }
+    
+    public Object getItem(int position) {
+        return differ.getCurrentList().get(position);
     }
     
     @Override
-    public int getViewTypeCount() {
-        return 3;
+    public int getItemCount() {
+        return differ.getCurrentList().size();
     }
     
     @Override
     public int getItemViewType(int position) {
-        Object item = items.get(position);
+        Object item = getItem(position);
         if (item instanceof String) {
             return TYPE_HEADER;
-        } else if (item instanceof File) {
+        } else if (item instanceof LibraryEntry) {
             return TYPE_LOCAL_FILE;
         } else if (item instanceof NetworkVideoLink) {
             return TYPE_NETWORK_LINK;
@@ -87,113 +162,94 @@ public class LibraryAdapter extends BaseAdapter {
         return TYPE_HEADER;
     }
     
+    @NonNull
     @Override
-    public boolean isEnabled(int position) {
-        // Headers are not clickable
-        return getItemViewType(position) != TYPE_HEADER;
-    }
-    
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        int viewType = getItemViewType(position);
-        View view = convertView;
-        
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         switch (viewType) {
-            case TYPE_HEADER:
-                view = createHeaderView(position, view, parent);
-                break;
             case TYPE_LOCAL_FILE:
-                view = createLocalFileView(position, view, parent);
-                break;
+                return new LocalFileViewHolder(makeSelectable(inflater.inflate(android.R.layout.simple_list_item_2, parent, false)));
             case TYPE_NETWORK_LINK:
-                view = createNetworkLinkView(position, view, parent);
-                break;
+                // Create a custom layout for network links with thumbnail support
+                return new NetworkLinkViewHolder(makeSelectable(createNetworkLinkLayout(parent)));
+            case TYPE_HEADER:
+            default:
+                return new HeaderViewHolder(makeSelectable(inflater.inflate(android.R.layout.preference_category, parent, false)));
+        }
+    }
+    
+    /**
+     * Focus and press highlight for D-pad navigation, click listeners alone don't make rows focusable before API 26
+     */
+    private View makeSelectable(View view) {
+        view.setFocusable(true);
+        if (view.getBackground() == null) {
+            view.setBackgroundResource(selectableBackgroundResId);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // Keep the header's own background
+            view.setForeground(ContextCompat.getDrawable(context, selectableBackgroundResId));
         }
-        
         return view;
     }
     
-    private View createHeaderView(int position, View convertView, ViewGroup parent) {
-        HeaderViewHolder holder;
-        
-        if (convertView == null) {
-            convertView = inflater.inflate(android.R.layout.preference_category, parent, false);
-            holder = new HeaderViewHolder();
-            holder.titleText = convertView.findViewById(android.R.id.title);
-            convertView.setTag(holder);
-        } else {
-            holder = (HeaderViewHolder) convertView.getTag();
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        if (holder instanceof HeaderViewHolder) {
+            bindHeader((HeaderViewHolder) holder, (String) getItem(position));
+        } else if (holder instanceof LocalFileViewHolder) {
+            bindLocalFile((LocalFileViewHolder) holder, (LibraryEntry) getItem(position));
+        } else if (holder instanceof NetworkLinkViewHolder) {
+            bindNetworkLink((NetworkLinkViewHolder) holder, (NetworkVideoLink) getItem(position));
         }
-        
-        String headerText = (String) items.get(position);
+    }
+    
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        if (holder instanceof NetworkLinkViewHolder) {
+            thumbnailLoader.cancel(((NetworkLinkViewHolder) holder).thumbnailImage);
+        }
+    }
+    
+    private void bindHeader(HeaderViewHolder holder, String headerText) {
         holder.titleText.setText(headerText);
         
-        convertView.setOnClickListener(v -> {
+        holder.itemView.setOnClickListener(v -> {
             if (onItemClickListener != null) {
                 onItemClickListener.onHeaderClick(headerText);
             }
         });
-        
-        return convertView;
     }
     
-    private View createLocalFileView(int position, View convertView, ViewGroup parent) {
-        LocalFileViewHolder holder;
+    private void bindLocalFile(LocalFileViewHolder holder, LibraryEntry entry) {
+        final File file = entry.getFile();
+        holder.nameText.setText(entry.getName());
         
-        if (convertView == null) {
-            convertView = inflater.inflate(android.R.layout.simple_list_item_2, parent, false);
-            holder = new LocalFileViewHolder();
-            holder.nameText = convertView.findViewById(android.R.id.text1);
-            holder.detailText = convertView.findViewById(android.R.id.text2);
-            convertView.setTag(holder);
-        } else {
-            holder = (LocalFileViewHolder) convertView.getTag();
+        // Show resolution, duration, file size and modified date, all read by the library scan
+        StringBuilder details = new StringBuilder();
+        if (entry.getWidth() > 0 && entry.getHeight() > 0) {
+            details.append(entry.getWidth()).append("x").append(entry.getHeight()).append(" • ");
         }
+        if (entry.getDurationMs() > 0) {
+            details.append(DateUtils.formatElapsedTime(entry.getDurationMs() / 1000)).append(" • ");
+        }
+        details.append(android.text.format.Formatter.formatFileSize(context, entry.getSize()));
+        details.append(" • ").append(DateUtils.getRelativeTimeSpanString(entry.getLastModified()));
+        holder.detailText.setText(details.toString());
         
-        File file = (File) items.get(position);
-        holder.nameText.setText(file.getName());
-        
-        // Show file size and modified date
-        long fileSize = file.length();
-        String sizeText = android.text.format.Formatter.formatFileSize(context, fileSize);
-        String modifiedText = DateUtils.getRelativeTimeSpanString(file.lastModified()).toString();
-        holder.detailText.setText(sizeText + " • " + modifiedText);
-        
-        convertView.setOnClickListener(v -> {
+        holder.itemView.setOnClickListener(v -> {
             if (onItemClickListener != null) {
                 onItemClickListener.onLocalFileClick(file);
             }
         });
         
-        convertView.setOnLongClickListener(v -> {
+        holder.itemView.setOnLongClickListener(v -> {
             if (onItemLongClickListener != null) {
                 return onItemLongClickListener.onLocalFileLongClick(file);
             }
             return false;
         });
-        
-        return convertView;
     }
     
-    private View createNetworkLinkView(int position, View convertView, ViewGroup parent) {
-        NetworkLinkViewHolder holder;
-        
-        if (convertView == null) {
-            // Create a custom layout for network links with thumbnail support
-            convertView = createNetworkLinkLayout(parent);
-            holder = new NetworkLinkViewHolder();
-            holder.thumbnailImage = convertView.findViewById(R.id.thumbnail);
-            holder.titleText = convertView.findViewById(R.id.title);
-            holder.urlText = convertView.findViewById(R.id.url);
-            holder.detailText = convertView.findViewById(R.id.details);
-            holder.statusIcon = convertView.findViewById(R.id.status_icon);
-            convertView.setTag(holder);
-        } else {
-            holder = (NetworkLinkViewHolder) convertView.getTag();
-        }
-        
-        NetworkVideoLink link = (NetworkVideoLink) items.get(position);
-        
+    private void bindNetworkLink(NetworkLinkViewHolder holder, NetworkVideoLink link) {
         // Set title
         holder.titleText.setText(link.getDisplayTitle());
         
@@ -209,10 +265,22 @@ public class LibraryAdapter extends BaseAdapter {
         if (!link.getFormat().isEmpty()) {
             details.append(link.getFormat());
         }
+        if (link.getResolutionString() != null) {
+            if (details.length() > 0) details.append(" • ");
+            details.append(link.getResolutionString());
+        }
+        if (link.getCodecsString() != null) {
+            if (details.length() > 0) details.append(" • ");
+            details.append(link.getCodecsString());
+        }
         if (link.getDuration() > 0) {
             if (details.length() > 0) details.append(" • ");
             details.append(link.getDurationString());
         }
+        if (link.getSize() > 0) {
+            if (details.length() > 0) details.append(" • ");
+            details.append(android.text.format.Formatter.formatFileSize(context, link.getSize()));
+        }
         if (link.getAccessCount() > 0) {
             if (details.length() > 0) details.append(" • ");
             details.append("Played ").append(link.getAccessCount()).append(" times");
@@ -222,41 +290,37 @@ public class LibraryAdapter extends BaseAdapter {
         }
         holder.detailText.setText(details.toString());
         
-        // Set thumbnail
-        if (link.hasThumbnail()) {
-            Bitmap thumbnail = BitmapFactory.decodeFile(link.getThumbnailPath());
-            if (thumbnail != null) {
-                holder.thumbnailImage.setImageBitmap(thumbnail);
-            } else {
-                holder.thumbnailImage.setImageResource(context.getResources().getIdentifier("ic_video_library_24dp", "drawable", context.getPackageName()));
-            }
-        } else {
-            holder.thumbnailImage.setImageResource(context.getResources().getIdentifier("ic_video_library_24dp", "drawable", context.getPackageName()));
-        }
+        // Set thumbnail, decoded in the background
+        thumbnailLoader.load(link, holder.thumbnailImage, placeholderResId);
         
-        // Set status icon
-        if (link.isValidUrl()) {
-            holder.statusIcon.setImageResource(context.getResources().getIdentifier("ic_cloud_download_24dp", "drawable", context.getPackageName()));
-            holder.statusIcon.setColorFilter(ContextCompat.getColor(context, android.R.color.holo_green_dark));
-        } else {
-            holder.statusIcon.setImageResource(android.R.drawable.ic_dialog_alert);
-            holder.statusIcon.setColorFilter(ContextCompat.getColor(context, android.R.color.holo_red_dark));
+        // Set status icon from the last health check
+        switch (link.getHealth()) {
+            case NetworkVideoLink.HEALTH_OK:
+                holder.statusIcon.setImageResource(cloudResId);
+                holder.statusIcon.setColorFilter(ContextCompat.getColor(context, android.R.color.holo_green_dark));
+                break;
+            case NetworkVideoLink.HEALTH_BROKEN:
+                holder.statusIcon.setImageResource(android.R.drawable.ic_dialog_alert);
+                holder.statusIcon.setColorFilter(ContextCompat.getColor(context, android.R.color.holo_red_dark));
+                break;
+            default:
+                holder.statusIcon.setImageResource(cloudResId);
+                holder.statusIcon.setColorFilter(ContextCompat.getColor(context, android.R.color.darker_gray));
+                break;
         }
         
-        convertView.setOnClickListener(v -> {
+        holder.itemView.setOnClickListener(v -> {
             if (onItemClickListener != null) {
                 onItemClickListener.onNetworkLinkClick(link);
             }
         });
         
-        convertView.setOnLongClickListener(v -> {
+        holder.itemView.setOnLongClickListener(v -> {
             if (onItemLongClickListener != null) {
                 return onItemLongClickListener.onNetworkLinkLongClick(link);
             }
             return false;
         });
-        
-        return convertView;
     }
     
     /**
@@ -267,9 +331,9 @@ public class LibraryAdapter extends BaseAdapter {
         android.widget.LinearLayout layout = new android.widget.LinearLayout(context);
         layout.setOrientation(android.widget.LinearLayout.HORIZONTAL);
         layout.setPadding(16, 12, 16, 12);
-        layout.setLayoutParams(new ViewGroup.LayoutParams(
-            ViewGroup.LayoutParams.MATCH_PARENT,
-            ViewGroup.LayoutParams.WRAP_CONTENT
+        layout.setLayoutParams(new RecyclerView.LayoutParams(
+            RecyclerView.LayoutParams.MATCH_PARENT,
+            RecyclerView.LayoutParams.WRAP_CONTENT
         ));
         
         // Add thumbnail ImageView
@@ -335,22 +399,76 @@ public class LibraryAdapter extends BaseAdapter {
         return layout;
     }
     
+    /**
+     * Headers and both sections as one list without copying the sections
+     */
+    private static class Sections extends AbstractList<Object> {
+        static final String HEADER_LOCAL_FILES = "Local Files";
+        static final String HEADER_NETWORK_LINKS = "Network Links";
+        
+        final List<LibraryEntry> localFiles;
+        final List<NetworkVideoLink> networkLinks;
+        final int localCount;
+        final int networkCount;
+        
+        Sections(List<LibraryEntry> localFiles, List<NetworkVideoLink> networkLinks) {
+            this.localFiles = localFiles;
+            this.networkLinks = networkLinks;
+            this.localCount = localFiles.isEmpty() ? 0 : localFiles.size() + 1;
+            this.networkCount = networkLinks.isEmpty() ? 0 : networkLinks.size() + 1;
+        }
+        
+        @Override
+        public Object get(int index) {
+            if (index < localCount) {
+                return index == 0 ? HEADER_LOCAL_FILES : localFiles.get(index - 1);
+            }
+            index -= localCount;
+            return index == 0 ? HEADER_NETWORK_LINKS : networkLinks.get(index - 1);
+        }
+        
+        @Override
+        public int size() {
+            return localCount + networkCount;
+        }
+    }
+    
     // ViewHolder classes
-    private static class HeaderViewHolder {
-        TextView titleText;
+    private static class HeaderViewHolder extends RecyclerView.ViewHolder {
+        final TextView titleText;
+        
+        HeaderViewHolder(View itemView) {
+            super(itemView);
+            titleText = itemView.findViewById(android.R.id.title);
+        }
     }
     
-    private static class LocalFileViewHolder {
-        TextView nameText;
-        TextView detailText;
+    private static class LocalFileViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameText;
+        final TextView detailText;
+        
+        LocalFileViewHolder(View itemView) {
+            super(itemView);
+            nameText = itemView.findViewById(android.R.id.text1);
+            detailText = itemView.findViewById(android.R.id.text2);
+        }
     }
     
-    private static class NetworkLinkViewHolder {
-        ImageView thumbnailImage;
-        TextView titleText;
-        TextView urlText;
-        TextView detailText;
-        ImageView statusIcon;
+    private static class NetworkLinkViewHolder extends RecyclerView.ViewHolder {
+        final ImageView thumbnailImage;
+        final TextView titleText;
+        final TextView urlText;
+        final TextView detailText;
+        final ImageView statusIcon;
+        
+        NetworkLinkViewHolder(View itemView) {
+            super(itemView);
+            thumbnailImage = itemView.findViewById(R.id.thumbnail);
+            titleText = itemView.findViewById(R.id.title);
+            urlText = itemView.findViewById(R.id.url);
+            detailText = itemView.findViewById(R.id.details);
+            statusIcon = itemView.findViewById(R.id.status_icon);
+        }
     }
     
     // Custom IDs for views (to avoid conflicts)
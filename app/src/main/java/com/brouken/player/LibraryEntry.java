@@ -0,0 +1,89 @@
+package com.brouken.player;
+
+import java.io.File;
+
+/**
+ * Immutable snapshot of a file in the media library, taken by {@link LibraryScanner}
+ * so that listing and binding rows never touch the disk
+ */
+public final class LibraryEntry {
+    private final File file;
+    private final long size;
+    private final long lastModified;
+    private final long durationMs;
+    private final int width;
+    private final int height;
+    private final boolean metadataLoaded;
+
+    LibraryEntry(File file, long size, long lastModified) {
+        this(file, size, lastModified, -1, 0, 0, false);
+    }
+
+    LibraryEntry(File file, long size, long lastModified, long durationMs, int width, int height, boolean metadataLoaded) {
+        this.file = file;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.durationMs = durationMs;
+        this.width = width;
+        this.height = height;
+        this.metadataLoaded = metadataLoaded;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getName() {
+        return file.getName();
+    }
+
+    public String getPath() {
+        return file.getAbsolutePath();
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    boolean isMetadataLoaded() {
+        return metadataLoaded;
+    }
+
+    /**
+     * Whether the file on disk is still the one this entry describes
+     */
+    boolean matches(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LibraryEntry that = (LibraryEntry) o;
+        return size == that.size && lastModified == that.lastModified && durationMs == that.durationMs
+                && width == that.width && height == that.height && metadataLoaded == that.metadataLoaded
+                && file.equals(that.file);
+    }
+
+    @Override
+    public int hashCode() {
+        return file.hashCode();
+    }
+}
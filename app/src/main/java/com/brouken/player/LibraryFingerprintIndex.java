@@ -0,0 +1,334 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Content fingerprints of the library files, so an import can find an existing copy with a map lookup.
+ * The fingerprint hashes the size and a few small samples spread over the file, which is cheap
+ * even for large videos. It only finds candidates, an import compares the content before it
+ * treats a candidate as a duplicate. A full hash of every file is computed in the background
+ * and reports copies the sampled check could not catch, e.g. two imports of the same file
+ * running at the same time. Such copies are kept: the import was reported as successful and
+ * the file may be playing.
+ */
+class LibraryFingerprintIndex {
+    private static final String TAG = "LibraryFingerprints";
+
+    private static final String PREFERENCES_NAME = "media_library_index";
+    private static final int SAMPLE_COUNT = 8;
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    private static final int HASH_BUFFER_SIZE = 256 * 1024;
+
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final String fingerprint;
+        String fullHash;
+
+        Entry(long size, long lastModified, String fingerprint, String fullHash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+            this.fullHash = fullHash;
+        }
+
+        static Entry parse(String value) {
+            String[] parts = value.split(":", -1);
+            if (parts.length != 4)
+                return null;
+            try {
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2], parts[3].isEmpty() ? null : parts[3]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        String format() {
+            return size + ":" + lastModified + ":" + fingerprint + ":" + (fullHash != null ? fullHash : "");
+        }
+    }
+
+    private final File dir;
+    private final SharedPreferences preferences;
+    private final ExecutorService hashExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+        // Full hashes are not urgent, keep them from competing with playback and imports
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+    }, "LibraryHash"));
+    // All guarded by this
+    private final Map<String, Entry> entriesByName = new HashMap<>();
+    // Every file with a fingerprint or hash, in the order they were indexed
+    private final Map<String, Set<String>> namesByFingerprint = new HashMap<>();
+    private final Map<String, Set<String>> namesByFullHash = new HashMap<>();
+    private boolean loaded;
+
+    LibraryFingerprintIndex(Context context, File dir) {
+        this.dir = dir;
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Fingerprint of the first size bytes of a channel. Reads are positional, the channel position is not changed.
+     */
+    static String fingerprint(FileChannel channel, long size) throws IOException {
+        MessageDigest digest = newDigest("SHA-1");
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putLong(size);
+        digest.update(header.array());
+
+        ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+        long step = size > SAMPLE_SIZE ? (size - SAMPLE_SIZE) / (SAMPLE_COUNT - 1) : 0;
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            long position = i * step;
+            sample.clear();
+            while (sample.hasRemaining() && position + sample.position() < size) {
+                if (channel.read(sample, position + sample.position()) < 0)
+                    break;
+            }
+            digest.update(sample.array(), 0, sample.position());
+            if (step == 0)
+                break;
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Compare the first size bytes of a channel with a file. Reads are positional, the channel position is not changed.
+     */
+    static boolean contentEquals(FileChannel channel, long size, File file) throws IOException {
+        if (file.length() != size)
+            return false;
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            FileChannel fileChannel = inputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+            ByteBuffer fileBuffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(HASH_BUFFER_SIZE, size - position);
+                buffer.clear().limit(length);
+                fileBuffer.clear().limit(length);
+                if (!readFully(channel, buffer, position) || !readFully(fileChannel, fileBuffer, position))
+                    return false;
+                buffer.flip();
+                fileBuffer.flip();
+                if (!buffer.equals(fileBuffer))
+                    return false;
+                position += length;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return false if the channel ended before the buffer was filled
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return library files with the same fingerprint, oldest first, their content still has to be compared
+     */
+    synchronized List<File> findCandidates(String fingerprint, long size) {
+        load();
+        Set<String> names = namesByFingerprint.get(fingerprint);
+        if (names == null)
+            return Collections.emptyList();
+        List<File> candidates = new ArrayList<>(names.size());
+        List<String> staleNames = new ArrayList<>();
+        for (String name : names) {
+            File file = new File(dir, name);
+            Entry entry = entriesByName.get(name);
+            // The file may have been replaced or deleted outside of the library
+            if (!file.isFile() || file.length() != size || file.lastModified() != entry.lastModified) {
+                staleNames.add(name);
+            } else {
+                candidates.add(file);
+            }
+        }
+        for (String name : staleNames) {
+            removeLocked(name);
+        }
+        return candidates;
+    }
+
+    /**
+     * Record a newly imported file and queue its full hash
+     */
+    synchronized void put(File file, String fingerprint) {
+        load();
+        removeLocked(file.getName());
+        putLocked(file.getName(), new Entry(file.length(), file.lastModified(), fingerprint, null));
+        queueFullHash(file);
+    }
+
+    synchronized void remove(String name) {
+        if (!loaded) {
+            // No need to read the whole index for this
+            preferences.edit().remove(name).apply();
+            return;
+        }
+        removeLocked(name);
+    }
+
+    synchronized void clear() {
+        entriesByName.clear();
+        namesByFingerprint.clear();
+        namesByFullHash.clear();
+        preferences.edit().clear().apply();
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        for (Map.Entry<String, ?> stored : preferences.getAll().entrySet()) {
+            Entry entry = stored.getValue() instanceof String ? Entry.parse((String) stored.getValue()) : null;
+            if (entry != null) {
+                putLocked(stored.getKey(), entry);
+            }
+        }
+        // Files imported before the index existed, or whose hashing was interrupted
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (!file.isFile() || file.getName().startsWith("."))
+                continue;
+            Entry entry = entriesByName.get(file.getName());
+            if (entry != null && entry.size == file.length() && entry.lastModified == file.lastModified()) {
+                if (entry.fullHash == null) {
+                    queueFullHash(file);
+                }
+                continue;
+            }
+            try (FileInputStream inputStream = new FileInputStream(file)) {
+                removeLocked(file.getName());
+                putLocked(file.getName(), new Entry(file.length(), file.lastModified(), fingerprint(inputStream.getChannel(), file.length()), null));
+                queueFullHash(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to fingerprint " + file.getName(), e);
+            }
+        }
+    }
+
+    private void putLocked(String name, Entry entry) {
+        entriesByName.put(name, entry);
+        addName(namesByFingerprint, entry.fingerprint, name);
+        if (entry.fullHash != null) {
+            addName(namesByFullHash, entry.fullHash, name);
+        }
+        preferences.edit().putString(name, entry.format()).apply();
+    }
+
+    private void removeLocked(String name) {
+        Entry entry = entriesByName.remove(name);
+        if (entry == null)
+            return;
+        // Other files with the same content stay findable
+        removeName(namesByFingerprint, entry.fingerprint, name);
+        if (entry.fullHash != null) {
+            removeName(namesByFullHash, entry.fullHash, name);
+        }
+        preferences.edit().remove(name).apply();
+    }
+
+    private static void addName(Map<String, Set<String>> namesByKey, String key, String name) {
+        Set<String> names = namesByKey.get(key);
+        if (names == null) {
+            names = new LinkedHashSet<>();
+            namesByKey.put(key, names);
+        }
+        names.add(name);
+    }
+
+    private static void removeName(Map<String, Set<String>> namesByKey, String key, String name) {
+        Set<String> names = namesByKey.get(key);
+        if (names != null && names.remove(name) && names.isEmpty()) {
+            namesByKey.remove(key);
+        }
+    }
+
+    private void queueFullHash(final File file) {
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+        hashExecutor.execute(() -> {
+            String fullHash;
+            try {
+                fullHash = fullHash(file);
+            } catch (IOException e) {
+                // Removed in the meantime
+                return;
+            }
+            synchronized (this) {
+                Entry entry = entriesByName.get(file.getName());
+                if (entry == null || entry.size != size || entry.lastModified != lastModified)
+                    return;
+                entry.fullHash = fullHash;
+                Set<String> names = namesByFullHash.get(fullHash);
+                if (names != null && !names.isEmpty() && !names.contains(file.getName())) {
+                    // Only reported, the copy may be playing and its import was reported as successful
+                    Log.i(TAG, file.getName() + " has the same content as " + names.iterator().next());
+                }
+                addName(namesByFullHash, fullHash, file.getName());
+                preferences.edit().putString(file.getName(), entry.format()).apply();
+            }
+        });
+    }
+
+    private static String fullHash(File file) throws IOException {
+        MessageDigest digest = newDigest("SHA-256");
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            FileChannel channel = inputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // Both are guaranteed to be available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -1,21 +1,125 @@
 package com.brouken.player;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Simple library manager for handling media files in app's private storage.
- * This is a minimal implementation for managing downloaded media files.
+ * Imports are renamed or hard-linked when possible, otherwise copied with FileChannel transfers
+ * into a hidden temporary file that is synced and renamed into place once complete.
+ * The library size is kept below the user's quota by removing the least recently played
+ * files that are not pinned before an import would exceed it. Content that already is in the
+ * library is found by its fingerprint, confirmed by comparing the bytes and not stored again.
  */
 public class LibraryManager {
+    private static final String TAG = "LibraryManager";
+    
+    static final String DIRECTORY_NAME = "media_library";
+    
+    // Hidden, so the library scan ignores imports in progress
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".part";
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int PIPE_BUFFER_SIZE = 256 * 1024;
+    
+    // Shared by all instances. A few imports run side by side, as content providers are often
+    // slower than the disk (SD cards, cloud documents); more would only compete for the same storage.
+    private static final int MAX_PARALLEL_IMPORTS = 3;
+    private static final ExecutorService importExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_IMPORTS);
+    // Names of imports in progress, so two imports never pick the same file name
+    private static final Set<String> reservedNames = new HashSet<>();
+    
+    private static LibraryFingerprintIndex fingerprintIndex;
     
+    // Bytes used by the library including imports in progress, counted once per process and then kept up to date
+    private static final Object usageLock = new Object();
+    private static long usedBytes = -1;
+    
+    private static final String PREFERENCES_NAME = "media_library";
+    private static final String KEY_PINNED = "pinned";
+    private static final String KEY_PLAYED_PREFIX = "played:";
+    private static final String KEY_IMPORTED_PREFIX = "imported:";
+    
+    private final Context context;
     private final File libraryDir;
+    private final ContentResolver contentResolver;
+    private final SharedPreferences libraryPreferences;
+    private final SharedPreferences userPreferences;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    public interface ImportCallback {
+        /**
+         * Called on the main thread after every transferred chunk
+         * @param totalBytes size of the source or -1 if unknown
+         * @param bytesPerSecond average throughput of this import so far
+         */
+        void onImportProgress(long bytesCopied, long totalBytes, long bytesPerSecond);
+        
+        /**
+         * Called on the main thread
+         * @param file the file in the library, null if the import failed or was cancelled
+         * @param duplicate whether the content already was in the library, file is then the existing copy
+         * @param error cause of the failure, null on success and on cancellation
+         */
+        void onImportFinished(File file, boolean duplicate, Exception error);
+    }
+    
+    /**
+     * Handle of an import running in the background
+     */
+    public static class ImportTask {
+        private volatile boolean cancelled;
+        private volatile boolean duplicate;
+        
+        /**
+         * Stop the import after the current chunk, the partial copy is deleted
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
     
     public LibraryManager(Context context) {
-        this.libraryDir = new File(context.getFilesDir(), "media_library");
+        this.context = context.getApplicationContext();
+        this.libraryDir = new File(context.getFilesDir(), DIRECTORY_NAME);
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+        this.libraryPreferences = context.getApplicationContext().getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.userPreferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
         
         // Create directory if it doesn't exist
         if (!libraryDir.exists()) {
@@ -39,38 +143,460 @@ public class LibraryManager {
      */
     public String addMediaFile(String sourceFilePath, String fileName) {
         try {
-            File sourceFile = new File(sourceFilePath);
-            if (!sourceFile.exists()) {
-                return null;
-            }
-            
-            // Generate unique filename
-            String uniqueFileName = generateUniqueFilename(fileName);
-            File destFile = new File(libraryDir, uniqueFileName);
-            
-            // Copy file using file streams
-            try (FileInputStream inputStream = new FileInputStream(sourceFile);
-                 FileOutputStream outputStream = new FileOutputStream(destFile)) {
-                
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
-            }
-            
-            return destFile.getAbsolutePath();
+            return importFileSync(new File(sourceFilePath), fileName, false, new ImportTask(), null).getAbsolutePath();
         } catch (Exception e) {
+            Log.e(TAG, "Error importing " + sourceFilePath, e);
             return null;
         }
     }
     
+    /**
+     * Add a media file to the library in the background
+     * @param move whether the source should be removed once imported
+     * @param callback called on the main thread with progress and result
+     */
+    public ImportTask importFile(File sourceFile, String fileName, boolean move, ImportCallback callback) {
+        return submitImport(sourceFile.getPath(), callback, task -> importFileSync(sourceFile, fileName, move, task, callback));
+    }
+    
+    /**
+     * Add a document picked through SAF or MediaStore to the library in the background.
+     * Several imports run in parallel, further ones wait in a queue.
+     * @param callback called on the main thread with progress and result
+     */
+    public ImportTask importUri(Uri uri, ImportCallback callback) {
+        return submitImport(uri.toString(), callback, task -> importUriSync(uri, task, callback));
+    }
+    
+    private interface ImportJob {
+        File run(ImportTask task) throws IOException;
+    }
+    
+    private ImportTask submitImport(String source, ImportCallback callback, ImportJob job) {
+        final ImportTask task = new ImportTask();
+        importExecutor.execute(() -> {
+            File file = null;
+            Exception error = null;
+            try {
+                if (!task.isCancelled()) {
+                    file = job.run(task);
+                }
+            } catch (CancellationException e) {
+                // Reported as neither file nor error
+            } catch (Exception e) {
+                Log.e(TAG, "Error importing " + source, e);
+                error = e;
+            }
+            final File result = file;
+            final Exception importError = error;
+            mainHandler.post(() -> callback.onImportFinished(result, task.duplicate, importError));
+        });
+        return task;
+    }
+    
+    private File importFileSync(File sourceFile, String fileName, boolean move, ImportTask task, ImportCallback callback) throws IOException {
+        if (!sourceFile.isFile()) {
+            throw new FileNotFoundException(sourceFile.getPath());
+        }
+        final long size = sourceFile.length();
+        final String fingerprint;
+        final File existingFile;
+        try (FileInputStream inputStream = new FileInputStream(sourceFile)) {
+            fingerprint = LibraryFingerprintIndex.fingerprint(inputStream.getChannel(), size);
+            existingFile = findConfirmedDuplicate(inputStream.getChannel(), fingerprint, size);
+        }
+        if (existingFile != null) {
+            task.duplicate = true;
+            if (move && !sourceFile.delete()) {
+                Log.w(TAG, "Unable to remove imported " + sourceFile);
+            }
+            return existingFile;
+        }
+        
+        reserveSpace(size);
+        final String name = reserveFilename(fileName);
+        final File destFile = new File(libraryDir, name);
+        final File tempFile = new File(libraryDir, TEMP_PREFIX + name + TEMP_SUFFIX);
+        boolean imported = false;
+        try {
+            // Same filesystem, nothing needs to be copied
+            if (move && sourceFile.renameTo(destFile)) {
+                imported = true;
+                getFingerprintIndex().put(destFile, fingerprint);
+                recordImport(destFile);
+                return destFile;
+            }
+            if (move || !link(sourceFile, tempFile)) {
+                try (FileInputStream inputStream = new FileInputStream(sourceFile)) {
+                    copy(inputStream.getChannel(), tempFile, size, task, callback);
+                }
+            }
+            moveIntoPlace(tempFile, destFile, size);
+            imported = true;
+            getFingerprintIndex().put(destFile, fingerprint);
+            recordImport(destFile);
+            if (move && !sourceFile.delete()) {
+                Log.w(TAG, "Unable to remove imported " + sourceFile);
+            }
+            return destFile;
+        } finally {
+            if (!imported) {
+                releaseSpace(size);
+            }
+            // Only left over if the import failed
+            tempFile.delete();
+            releaseFilename(name);
+        }
+    }
+    
+    private File importUriSync(Uri uri, ImportTask task, ImportCallback callback) throws IOException {
+        String fileName = null;
+        try (Cursor cursor = contentResolver.query(uri, new String[] {OpenableColumns.DISPLAY_NAME}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                fileName = cursor.getString(0);
+            }
+        } catch (RuntimeException e) {
+            // Not every provider supports OpenableColumns
+            Log.w(TAG, "Unable to query " + uri, e);
+        }
+        if (fileName == null || fileName.isEmpty()) {
+            fileName = uri.getLastPathSegment() != null ? uri.getLastPathSegment() : "video";
+        }
+        // Display names are not guaranteed to be valid file names
+        fileName = fileName.replace('/', '_');
+        if (fileName.startsWith(TEMP_PREFIX)) {
+            fileName = "_" + fileName;
+        }
+        
+        final ParcelFileDescriptor fileDescriptor = contentResolver.openFileDescriptor(uri, "r");
+        if (fileDescriptor == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        // -1 for pipes of providers that generate or download the content. Pipes can only be read
+        // sequentially, so the size a provider reports in OpenableColumns must not decide how to copy.
+        final long size = fileDescriptor.getStatSize() >= 0 ? fileDescriptor.getStatSize() : -1;
+        
+        long reservedBytes = 0;
+        final String name = reserveFilename(fileName);
+        final File destFile = new File(libraryDir, name);
+        final File tempFile = new File(libraryDir, TEMP_PREFIX + name + TEMP_SUFFIX);
+        boolean imported = false;
+        try (FileInputStream inputStream = new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor)) {
+            String fingerprint = null;
+            if (size >= 0) {
+                fingerprint = LibraryFingerprintIndex.fingerprint(inputStream.getChannel(), size);
+                final File existingFile = findConfirmedDuplicate(inputStream.getChannel(), fingerprint, size);
+                if (existingFile != null) {
+                    task.duplicate = true;
+                    return existingFile;
+                }
+                reserveSpace(size);
+                reservedBytes = size;
+            }
+            copy(inputStream.getChannel(), tempFile, size, task, callback);
+            if (size < 0) {
+                // Streamed content can only be checked once it has been received
+                final File existingFile;
+                try (FileInputStream tempStream = new FileInputStream(tempFile)) {
+                    fingerprint = LibraryFingerprintIndex.fingerprint(tempStream.getChannel(), tempFile.length());
+                    existingFile = findConfirmedDuplicate(tempStream.getChannel(), fingerprint, tempFile.length());
+                }
+                if (existingFile != null) {
+                    task.duplicate = true;
+                    return existingFile;
+                }
+                reserveSpace(tempFile.length());
+                reservedBytes = tempFile.length();
+            }
+            moveIntoPlace(tempFile, destFile, size);
+            imported = true;
+            getFingerprintIndex().put(destFile, fingerprint);
+            recordImport(destFile);
+            return destFile;
+        } finally {
+            if (!imported) {
+                releaseSpace(reservedBytes);
+            }
+            tempFile.delete();
+            releaseFilename(name);
+        }
+    }
+    
+    /**
+     * Library file with the content of the source, the sampled fingerprint only suggests candidates
+     * and the bytes are compared before anything is skipped or a moved source is deleted
+     * @param source read positionally, its position is not changed
+     */
+    private File findConfirmedDuplicate(FileChannel source, String fingerprint, long size) throws IOException {
+        for (File existingFile : getFingerprintIndex().findCandidates(fingerprint, size)) {
+            if (LibraryFingerprintIndex.contentEquals(source, size, existingFile))
+                return existingFile;
+            Log.i(TAG, "Fingerprint of " + existingFile.getName() + " matched different content");
+        }
+        return null;
+    }
+    
+    /**
+     * Hard link the source into the library, only possible within the same filesystem
+     */
+    private static boolean link(File sourceFile, File destFile) {
+        try {
+            Os.link(sourceFile.getAbsolutePath(), destFile.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            // EXDEV across filesystems, or links not supported
+            return false;
+        }
+    }
+    
+    /**
+     * @param size number of bytes to copy or -1 to read a pipe until its end
+     */
+    private void copy(FileChannel source, File destFile, long size, ImportTask task, ImportCallback callback) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(destFile)) {
+            FileChannel destination = outputStream.getChannel();
+            final long startTime = SystemClock.elapsedRealtime();
+            // Pipes have no positions (lseek fails), so they are drained with plain reads and writes
+            final ByteBuffer buffer = size < 0 ? ByteBuffer.allocateDirect(PIPE_BUFFER_SIZE) : null;
+            long position = 0;
+            long reportedPosition = 0;
+            long bytesPerSecond = 0;
+            while (size < 0 || position < size) {
+                if (task.isCancelled()) {
+                    throw new CancellationException();
+                }
+                long transferred;
+                if (size < 0) {
+                    buffer.clear();
+                    transferred = source.read(buffer);
+                    if (transferred < 0) {
+                        // End of the pipe
+                        break;
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        destination.write(buffer);
+                    }
+                } else {
+                    // transferTo lets the kernel copy (sendfile) without passing the data through the Java heap
+                    transferred = source.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), destination);
+                    if (transferred <= 0) {
+                        // Truncated source, caught by the size check
+                        break;
+                    }
+                }
+                position += transferred;
+                // Pipe reads are small, report progress per chunk like file transfers
+                if (position - reportedPosition < TRANSFER_CHUNK_SIZE && (size < 0 || position < size))
+                    continue;
+                reportedPosition = position;
+                bytesPerSecond = position * 1000 / Math.max(1, SystemClock.elapsedRealtime() - startTime);
+                if (callback != null) {
+                    final long bytesCopied = position;
+                    final long rate = bytesPerSecond;
+                    mainHandler.post(() -> callback.onImportProgress(bytesCopied, size, rate));
+                }
+            }
+            // Data must be on disk before the rename makes the file visible
+            outputStream.getFD().sync();
+            bytesPerSecond = position * 1000 / Math.max(1, SystemClock.elapsedRealtime() - startTime);
+            Utils.log("Imported " + destFile.getName() + ": " + position + " bytes in "
+                    + (SystemClock.elapsedRealtime() - startTime) + " ms, " + bytesPerSecond / 1024 + " KB/s");
+        }
+    }
+    
+    /**
+     * @param expectedSize size the file must have, -1 if unknown
+     */
+    private static void moveIntoPlace(File tempFile, File destFile, long expectedSize) throws IOException {
+        if (expectedSize >= 0 && tempFile.length() != expectedSize) {
+            throw new IOException("Size of " + tempFile.getName() + " is " + tempFile.length() + ", expected " + expectedSize);
+        }
+        if (!tempFile.renameTo(destFile)) {
+            throw new IOException("Unable to rename " + tempFile.getName());
+        }
+    }
+    
     /**
      * Remove a media file from the library
      */
     public boolean removeMediaFromLibrary(String filename) {
         File mediaFile = new File(libraryDir, filename);
-        return mediaFile.exists() && mediaFile.delete();
+        long length = mediaFile.length();
+        if (!mediaFile.exists() || !mediaFile.delete())
+            return false;
+        releaseSpace(length);
+        forget(filename);
+        return true;
+    }
+    
+    /**
+     * Record playback if the uri is a library file, files played least recently are removed first when over quota.
+     * Other media is ignored.
+     */
+    public void markPlayed(Uri uri) {
+        if (!ContentResolver.SCHEME_FILE.equals(uri.getScheme()) || uri.getPath() == null)
+            return;
+        File file = new File(uri.getPath());
+        if (libraryDir.equals(file.getParentFile())) {
+            libraryPreferences.edit().putLong(KEY_PLAYED_PREFIX + file.getName(), System.currentTimeMillis()).apply();
+        }
+    }
+    
+    /**
+     * Renamed and hard-linked imports keep the modification time of their source, so the import
+     * time is recorded for ranking files that were never played
+     */
+    private void recordImport(File file) {
+        libraryPreferences.edit().putLong(KEY_IMPORTED_PREFIX + file.getName(), System.currentTimeMillis()).apply();
+    }
+    
+    public boolean isPinned(File file) {
+        return libraryPreferences.getStringSet(KEY_PINNED, Collections.<String>emptySet()).contains(file.getName());
+    }
+    
+    /**
+     * Pinned files are never removed to make room for imports
+     */
+    public void setPinned(File file, boolean pinned) {
+        synchronized (usageLock) {
+            // The returned set must not be modified
+            Set<String> pinnedNames = new HashSet<>(libraryPreferences.getStringSet(KEY_PINNED, Collections.<String>emptySet()));
+            if (pinned) {
+                pinnedNames.add(file.getName());
+            } else {
+                pinnedNames.remove(file.getName());
+            }
+            libraryPreferences.edit().putStringSet(KEY_PINNED, pinnedNames).apply();
+        }
+    }
+    
+    /**
+     * @return the library size limit in bytes, 0 if unlimited
+     */
+    public long getQuota() {
+        try {
+            return Long.parseLong(userPreferences.getString(Prefs.PREF_KEY_LIBRARY_QUOTA, "0")) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * Account for a file about to be added, removing least recently played files if it would exceed the quota
+     * @throws IOException if not enough unpinned files can be removed
+     */
+    private void reserveSpace(long bytes) throws IOException {
+        final long quota = getQuota();
+        synchronized (usageLock) {
+            long used = getUsedBytesLocked();
+            if (quota > 0 && used + bytes > quota) {
+                evictLocked(used + bytes - quota);
+                if (usedBytes + bytes > quota) {
+                    throw new IOException("Library quota of " + quota + " bytes exceeded");
+                }
+            }
+            usedBytes += bytes;
+        }
+    }
+    
+    private static void releaseSpace(long bytes) {
+        synchronized (usageLock) {
+            if (usedBytes >= 0) {
+                usedBytes = Math.max(0, usedBytes - bytes);
+            }
+        }
+    }
+    
+    private long getUsedBytesLocked() {
+        if (usedBytes < 0) {
+            long total = 0;
+            File[] files = libraryDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    total += file.length();
+                }
+            }
+            usedBytes = total;
+        }
+        return usedBytes;
+    }
+    
+    private void evictLocked(long bytesNeeded) {
+        File[] files = libraryDir.listFiles();
+        if (files == null)
+            return;
+        final Set<String> pinnedNames = libraryPreferences.getStringSet(KEY_PINNED, Collections.<String>emptySet());
+        final List<File> candidates = new ArrayList<>();
+        synchronized (reservedNames) {
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isFile() && !name.startsWith(TEMP_PREFIX) && !pinnedNames.contains(name) && !reservedNames.contains(name)) {
+                    candidates.add(file);
+                }
+            }
+        }
+        // Read once, the comparator runs many times
+        final Map<File, Long> lastUsed = new HashMap<>();
+        for (File file : candidates) {
+            // Never played files count from the time they were imported, files imported before
+            // import times were recorded from their modification time
+            long imported = libraryPreferences.getLong(KEY_IMPORTED_PREFIX + file.getName(), file.lastModified());
+            lastUsed.put(file, libraryPreferences.getLong(KEY_PLAYED_PREFIX + file.getName(), imported));
+        }
+        Collections.sort(candidates, (a, b) -> Long.compare(lastUsed.get(a), lastUsed.get(b)));
+        
+        long freed = 0;
+        for (File file : candidates) {
+            if (freed >= bytesNeeded)
+                break;
+            long length = file.length();
+            if (file.delete()) {
+                Log.i(TAG, "Removed " + file.getName() + " to stay within the library quota");
+                freed += length;
+                usedBytes = Math.max(0, usedBytes - length);
+                forget(file.getName());
+            }
+        }
+    }
+    
+    private LibraryFingerprintIndex getFingerprintIndex() {
+        synchronized (LibraryManager.class) {
+            if (fingerprintIndex == null) {
+                fingerprintIndex = new LibraryFingerprintIndex(context, libraryDir);
+            }
+            return fingerprintIndex;
+        }
+    }
+    
+    private void forget(String filename) {
+        getFingerprintIndex().remove(filename);
+        synchronized (usageLock) {
+            Set<String> pinnedNames = libraryPreferences.getStringSet(KEY_PINNED, Collections.<String>emptySet());
+            SharedPreferences.Editor editor = libraryPreferences.edit()
+                    .remove(KEY_PLAYED_PREFIX + filename)
+                    .remove(KEY_IMPORTED_PREFIX + filename);
+            if (pinnedNames.contains(filename)) {
+                Set<String> remaining = new HashSet<>(pinnedNames);
+                remaining.remove(filename);
+                editor.putStringSet(KEY_PINNED, remaining);
+            }
+            editor.apply();
+        }
+    }
+    
+    private String reserveFilename(String originalName) {
+        synchronized (reservedNames) {
+            String name = generateUniqueFilename(originalName);
+            reservedNames.add(name);
+            return name;
+        }
+    }
+    
+    private static void releaseFilename(String name) {
+        synchronized (reservedNames) {
+            reservedNames.remove(name);
+        }
     }
     
     /**
@@ -80,7 +606,7 @@ public class LibraryManager {
         String name = originalName;
         int counter = 1;
         
-        while (new File(libraryDir, name).exists()) {
+        while (new File(libraryDir, name).exists() || reservedNames.contains(name)) {
             int dotIndex = originalName.lastIndexOf('.');
             if (dotIndex > 0) {
                 String nameWithoutExt = originalName.substring(0, dotIndex);
@@ -96,17 +622,12 @@ public class LibraryManager {
     }
     
     /**
-     * Get total storage used by library
+     * Get total storage used by library, the directory is only walked on the first call of the process
      */
     public long getTotalStorageUsed() {
-        long total = 0;
-        File[] files = libraryDir.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                total += file.length();
-            }
+        synchronized (usageLock) {
+            return getUsedBytesLocked();
         }
-        return total;
     }
     
     /**
@@ -119,5 +640,11 @@ public class LibraryManager {
                 file.delete();
             }
         }
+        libraryPreferences.edit().clear().apply();
+        getFingerprintIndex().clear();
+        synchronized (usageLock) {
+            // Imports in progress still count, so count again
+            usedBytes = -1;
+        }
     }
 }
@@ -0,0 +1,187 @@
+package com.brouken.player;
+
+import android.media.MediaMetadataRetriever;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps a snapshot of the files in the media library, scanned on a background thread.
+ * Size and date are read with the listing, duration and resolution are extracted once per file
+ * version (path, size and modification time) and reused by later scans.
+ * Changes in the directory are picked up by a {@link FileObserver} and rescanned after a short delay,
+ * so a file being written triggers a single rescan.
+ */
+class LibraryScanner {
+    private static final String TAG = "LibraryScanner";
+
+    private static final long RESCAN_DELAY_MS = 500;
+    private static final int OBSERVED_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+            | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE | FileObserver.DELETE_SELF;
+
+    interface OnLibraryChangedListener {
+        /**
+         * Called on the main thread with the new snapshot
+         */
+        void onLibraryChanged(List<LibraryEntry> entries);
+    }
+
+    private static final Comparator<LibraryEntry> NEWEST_FIRST = (a, b) -> {
+        int result = Long.compare(b.getLastModified(), a.getLastModified());
+        return result != 0 ? result : a.getName().compareTo(b.getName());
+    };
+
+    private final File dir;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<OnLibraryChangedListener> listeners = new CopyOnWriteArrayList<>();
+    // Only accessed on the executor thread
+    private final Map<String, LibraryEntry> entriesByPath = new HashMap<>();
+    private final FileObserver observer;
+    private final Runnable rescan = this::scan;
+    private volatile List<LibraryEntry> entries = Collections.emptyList();
+
+    @SuppressWarnings("deprecation")
+    LibraryScanner(File dir) {
+        this.dir = dir;
+        // The File constructor is API 29+
+        observer = new FileObserver(dir.getAbsolutePath(), OBSERVED_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                // Temporary files of imports in progress
+                if (path != null && path.startsWith("."))
+                    return;
+                mainHandler.removeCallbacks(rescan);
+                mainHandler.postDelayed(rescan, RESCAN_DELAY_MS);
+            }
+        };
+    }
+
+    /**
+     * @return unmodifiable snapshot of the last scan, empty until the first scan finished
+     */
+    List<LibraryEntry> getEntries() {
+        return entries;
+    }
+
+    void addOnLibraryChangedListener(OnLibraryChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeOnLibraryChangedListener(OnLibraryChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queue a scan of the library directory
+     */
+    void scan() {
+        executor.execute(this::scanNow);
+    }
+
+    private void scanNow() {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        // Watching fails silently if the directory didn't exist yet, starting again is a no-op otherwise
+        observer.startWatching();
+
+        File[] files = dir.listFiles();
+        List<LibraryEntry> listed = new ArrayList<>(files != null ? files.length : 0);
+        Map<String, LibraryEntry> current = new HashMap<>();
+        List<LibraryEntry> pendingMetadata = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.isFile() || file.getName().startsWith("."))
+                    continue;
+                long size = file.length();
+                long lastModified = file.lastModified();
+                LibraryEntry entry = entriesByPath.get(file.getAbsolutePath());
+                if (entry == null || !entry.matches(size, lastModified)) {
+                    entry = new LibraryEntry(file, size, lastModified);
+                }
+                if (!entry.isMetadataLoaded()) {
+                    pendingMetadata.add(entry);
+                }
+                listed.add(entry);
+                current.put(entry.getPath(), entry);
+            }
+        }
+        entriesByPath.clear();
+        entriesByPath.putAll(current);
+        publish(listed);
+
+        if (pendingMetadata.isEmpty())
+            return;
+        // Names and sizes are shown right away, metadata follows once extracted
+        for (LibraryEntry entry : pendingMetadata) {
+            LibraryEntry loaded = loadMetadata(entry);
+            // A newer scan may have replaced the entry in the meantime
+            if (entriesByPath.get(entry.getPath()) == entry) {
+                entriesByPath.put(entry.getPath(), loaded);
+            }
+        }
+        publish(new ArrayList<>(entriesByPath.values()));
+    }
+
+    private void publish(List<LibraryEntry> listed) {
+        Collections.sort(listed, NEWEST_FIRST);
+        final List<LibraryEntry> snapshot = Collections.unmodifiableList(listed);
+        entries = snapshot;
+        mainHandler.post(() -> {
+            for (OnLibraryChangedListener listener : listeners) {
+                listener.onLibraryChanged(snapshot);
+            }
+        });
+    }
+
+    private static LibraryEntry loadMetadata(LibraryEntry entry) {
+        long durationMs = -1;
+        int width = 0;
+        int height = 0;
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(entry.getPath());
+            durationMs = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION), -1);
+            width = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH), 0);
+            height = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT), 0);
+            long rotation = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION), 0);
+            if (rotation == 90 || rotation == 270) {
+                int swap = width;
+                width = height;
+                height = swap;
+            }
+        } catch (RuntimeException e) {
+            // Not a media file or unsupported container, shown without metadata
+            Log.w(TAG, "Unable to read metadata of " + entry.getName(), e);
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {
+            }
+        }
+        return new LibraryEntry(entry.getFile(), entry.getSize(), entry.getLastModified(), durationMs, width, height, true);
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.brouken.player;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Revalidates network links in the background with conditional HEAD requests.
+ * Only a few requests run at the same time and hosts that keep failing are backed off exponentially.
+ */
+class LinkHealthChecker {
+    private static final String TAG = "LinkHealthChecker";
+
+    private static final int MAX_CONCURRENT_CHECKS = 4;
+    private static final long MIN_HOST_BACKOFF_MS = 60_000;
+    private static final long MAX_HOST_BACKOFF_MS = TimeUnit.HOURS.toMillis(6);
+
+    interface Callback {
+        /**
+         * Called on a worker thread
+         */
+        void onChecked(String linkId, Result result);
+    }
+
+    static class Result {
+        // HTTP status, -1 if the server could not be reached
+        int status;
+        long latencyMs = -1;
+        String etag;
+        String lastModified;
+        long checkedAt;
+    }
+
+    private static class HostBackoff {
+        int failures;
+        volatile long retryAt;
+    }
+
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(10, TimeUnit.SECONDS)
+            .build();
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_CHECKS);
+    private final Map<String, HostBackoff> backoffByHost = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> pendingChecks = new ConcurrentHashMap<>();
+
+    /**
+     * Queue a check of the link. Skipped if one is already queued or the host is backed off.
+     * Link fields are read on the calling thread.
+     * @return true if the check was queued
+     */
+    boolean check(NetworkVideoLink link, Callback callback) {
+        final String linkId = link.getId();
+        final String url = link.getUrl();
+        final String host = link.getHostname();
+        if (!isSupported(link) || host == null || isBackedOff(host))
+            return false;
+        if (pendingChecks.put(linkId, Boolean.TRUE) != null)
+            return false;
+
+        // Only send validators if the previous response was usable, otherwise a 304 would hide a recovery
+        final boolean conditional = link.getHealth() == NetworkVideoLink.HEALTH_OK;
+        final String etag = conditional ? link.getEtag() : null;
+        final String lastModified = conditional ? link.getServerLastModified() : null;
+
+        executor.execute(() -> {
+            try {
+                // The host may have started failing while this check was queued
+                if (isBackedOff(host))
+                    return;
+                Result result = request(url, etag, lastModified);
+                recordHostResult(host, result.status);
+                callback.onChecked(linkId, result);
+            } catch (Exception e) {
+                Log.e(TAG, "Error checking " + url, e);
+            } finally {
+                pendingChecks.remove(linkId);
+            }
+        });
+        return true;
+    }
+
+    static boolean isSupported(NetworkVideoLink link) {
+        // HEAD only makes sense for http(s), RTSP servers are checked by playing
+        String scheme = Uri.parse(link.getUrl()).getScheme();
+        return scheme != null && scheme.toLowerCase().startsWith("http");
+    }
+
+    boolean isBackedOff(String host) {
+        HostBackoff backoff = backoffByHost.get(host);
+        return backoff != null && System.currentTimeMillis() < backoff.retryAt;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Result request(String url, String etag, String lastModified) {
+        Result result = new Result();
+        result.etag = etag;
+        result.lastModified = lastModified;
+        final long start = System.nanoTime();
+        try {
+            Response response = execute(url, "HEAD", etag, lastModified);
+            if (response.code() == 405 || response.code() == 501) {
+                // Some servers reject HEAD, ask for a single byte instead
+                response = execute(url, "GET", etag, lastModified);
+            }
+            result.latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            result.status = response.code();
+            if (response.code() != 304) {
+                result.etag = response.header("ETag");
+                result.lastModified = response.header("Last-Modified");
+            }
+        } catch (IOException e) {
+            result.status = -1;
+        }
+        result.checkedAt = System.currentTimeMillis();
+        return result;
+    }
+
+    private Response execute(String url, String method, String etag, String lastModified) throws IOException {
+        Request.Builder builder = new Request.Builder().url(url);
+        if (method.equals("HEAD")) {
+            builder.head();
+        } else {
+            builder.header("Range", "bytes=0-0");
+        }
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        // Only headers are needed, the body is discarded unread
+        Response response = client.newCall(builder.build()).execute();
+        response.close();
+        return response;
+    }
+
+    private void recordHostResult(String host, int status) {
+        // Server errors and throttling say something about the host, 404 only about the link
+        boolean hostFailure = status == -1 || status == 429 || status >= 500;
+        if (!hostFailure) {
+            backoffByHost.remove(host);
+            return;
+        }
+        synchronized (backoffByHost) {
+            HostBackoff backoff = backoffByHost.get(host);
+            if (backoff == null) {
+                backoff = new HostBackoff();
+                backoffByHost.put(host, backoff);
+            }
+            backoff.failures++;
+            long delay = Math.min(MIN_HOST_BACKOFF_MS << Math.min(backoff.failures - 1, 16), MAX_HOST_BACKOFF_MS);
+            backoff.retryAt = System.currentTimeMillis() + delay;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.brouken.player;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Incrementally maintained token index over link titles, hostnames and descriptions.
+ * Every query term matches indexed tokens by prefix, all terms must match and results are ranked
+ * by where the terms were found.
+ */
+class LinkSearchIndex {
+
+    private static final int WEIGHT_TITLE = 4;
+    private static final int WEIGHT_HOST = 2;
+    private static final int WEIGHT_DESCRIPTION = 1;
+
+    // Sorted so that all tokens starting with a prefix form a contiguous range
+    private final TreeMap<String, Map<String, Integer>> postings = new TreeMap<>();
+    // Tokens indexed for each link, so stale postings can be dropped on update or removal
+    private final Map<String, Map<String, Integer>> tokensByLink = new HashMap<>();
+
+    /**
+     * Index a new link or re-index a changed one
+     */
+    synchronized void add(NetworkVideoLink link) {
+        remove(link.getId());
+
+        Map<String, Integer> tokens = new HashMap<>();
+        addTokens(tokens, link.getDisplayTitle(), WEIGHT_TITLE);
+        String host = link.getHostname();
+        if (host != null) {
+            String lowercaseHost = host.toLowerCase(Locale.ROOT);
+            putMax(tokens, lowercaseHost, WEIGHT_HOST);
+            addTokens(tokens, lowercaseHost, WEIGHT_HOST);
+        }
+        addTokens(tokens, link.getDescription(), WEIGHT_DESCRIPTION);
+
+        for (Map.Entry<String, Integer> token : tokens.entrySet()) {
+            Map<String, Integer> posting = postings.get(token.getKey());
+            if (posting == null) {
+                posting = new HashMap<>();
+                postings.put(token.getKey(), posting);
+            }
+            posting.put(link.getId(), token.getValue());
+        }
+        tokensByLink.put(link.getId(), tokens);
+    }
+
+    synchronized void remove(String linkId) {
+        Map<String, Integer> tokens = tokensByLink.remove(linkId);
+        if (tokens == null)
+            return;
+        for (String token : tokens.keySet()) {
+            Map<String, Integer> posting = postings.get(token);
+            if (posting != null) {
+                posting.remove(linkId);
+                if (posting.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        postings.clear();
+        tokensByLink.clear();
+    }
+
+    /**
+     * Find links matching every term of the query
+     * @return scores of matching link ids, or null if the query has no searchable terms
+     */
+    synchronized Map<String, Integer> search(String query) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty())
+            return null;
+
+        Map<String, Integer> scores = null;
+        for (String term : terms) {
+            Map<String, Integer> termScores = new HashMap<>();
+            // All tokens with the term as prefix; exact token matches count double
+            for (Map.Entry<String, Map<String, Integer>> entry : postings.subMap(term, true, term + Character.MAX_VALUE, false).entrySet()) {
+                int factor = entry.getKey().length() == term.length() ? 2 : 1;
+                for (Map.Entry<String, Integer> posting : entry.getValue().entrySet()) {
+                    putMax(termScores, posting.getKey(), posting.getValue() * factor);
+                }
+            }
+
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                Map<String, Integer> intersection = new HashMap<>();
+                for (Map.Entry<String, Integer> score : scores.entrySet()) {
+                    Integer termScore = termScores.get(score.getKey());
+                    if (termScore != null) {
+                        intersection.put(score.getKey(), score.getValue() + termScore);
+                    }
+                }
+                scores = intersection;
+            }
+            if (scores.isEmpty())
+                break;
+        }
+        return scores;
+    }
+
+    private static void addTokens(Map<String, Integer> tokens, String text, int weight) {
+        for (String token : tokenize(text)) {
+            putMax(tokens, token, weight);
+        }
+    }
+
+    private static void putMax(Map<String, Integer> map, String key, int value) {
+        Integer current = map.get(key);
+        if (current == null || current < value) {
+            map.put(key, value);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null)
+            return tokens;
+        String lowercaseText = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lowercaseText.length(); i++) {
+            boolean tokenChar = i < lowercaseText.length() && Character.isLetterOrDigit(lowercaseText.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(lowercaseText.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,805 @@
+package com.brouken.player;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Reads container level metadata (duration, resolution, codecs, size) of network media
+ * with a HEAD request and a few small range reads instead of opening the player.
+ * Understands MP4/MOV (moov box, also at the end of the file), Matroska/WebM (EBML header,
+ * segment info and tracks), HLS playlists and DASH manifests.
+ */
+class MediaProbe {
+    private static final String TAG = "MediaProbe";
+
+    private static final int HEAD_BYTES = 64 * 1024;
+    private static final int MAX_MOOV_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_MANIFEST_BYTES = 1024 * 1024;
+    private static final int MAX_TOP_LEVEL_BOXES = 32;
+
+    private static final Pattern CONTENT_RANGE_TOTAL = Pattern.compile("/(\\d+)\\s*$");
+    private static final Pattern HLS_ATTRIBUTE = Pattern.compile("([A-Z0-9-]+)=(\"[^\"]*\"|[^,]*)");
+    private static final Pattern XML_TAG = Pattern.compile("<(AdaptationSet|Representation)\\b([^>]*)>");
+    private static final Pattern XML_ATTRIBUTE = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+    private static final Pattern ISO_DURATION = Pattern.compile("P(?:(\\d+)D)?T?(?:(\\d+)H)?(?:(\\d+)M)?(?:([\\d.]+)S)?");
+
+    static class Result {
+        String container;
+        long durationMs = -1;
+        int width;
+        int height;
+        String videoCodec;
+        String audioCodec;
+        long sizeBytes = -1;
+    }
+
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(15, TimeUnit.SECONDS)
+            .build();
+    private final LruCache<String, Result> cache = new LruCache<>(256);
+
+    /**
+     * Probe a URL, results are cached by URL
+     */
+    Result probe(String url) throws IOException {
+        Result cached = cache.get(url);
+        if (cached != null)
+            return cached;
+
+        Result result = new Result();
+        result.sizeBytes = head(url);
+
+        long[] totalSize = new long[] { -1 };
+        byte[] head = readRange(url, 0, HEAD_BYTES, totalSize);
+        if (result.sizeBytes < 0) {
+            result.sizeBytes = totalSize[0];
+        }
+
+        if (startsWith(head, "#EXTM3U")) {
+            result.container = "HLS";
+            probeHls(url, head, result);
+            // Size of a playlist says nothing about the media
+            result.sizeBytes = -1;
+        } else if (isDashManifest(head)) {
+            result.container = "DASH";
+            probeDash(head, result);
+            result.sizeBytes = -1;
+        } else if (head.length >= 8 && isMp4Box(fourcc(head, 4))) {
+            result.container = "MP4";
+            probeMp4(url, head, result);
+        } else if (head.length >= 4 && uint32(head, 0) == 0x1A45DFA3L) {
+            result.container = "MKV";
+            try {
+                probeMatroska(head, result);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Malformed Matroska header: " + url, e);
+            }
+        }
+
+        cache.put(url, result);
+        return result;
+    }
+
+    /**
+     * @return content length from a HEAD request or -1
+     */
+    private long head(String url) {
+        Request request = new Request.Builder().url(url).head().build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                String length = response.header("Content-Length");
+                if (length != null) {
+                    return Long.parseLong(length.trim());
+                }
+            }
+        } catch (Exception e) {
+            // Not all servers support HEAD, the size is also taken from Content-Range later
+            Utils.log("Probe HEAD failed for: " + url);
+        }
+        return -1;
+    }
+
+    /**
+     * Read up to length bytes starting at start. Servers ignoring Range are tolerated for start 0.
+     */
+    private byte[] readRange(String url, long start, int length, long[] totalSizeOut) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("Range", "bytes=" + start + "-" + (start + length - 1))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code() + " for " + url);
+            }
+            if (response.code() != 206 && start > 0) {
+                throw new IOException("Range requests not supported by " + url);
+            }
+            if (totalSizeOut != null) {
+                String contentRange = response.header("Content-Range");
+                if (contentRange != null) {
+                    Matcher matcher = CONTENT_RANGE_TOTAL.matcher(contentRange);
+                    if (matcher.find()) {
+                        totalSizeOut[0] = Long.parseLong(matcher.group(1));
+                    }
+                } else if (response.code() == 200 && response.body() != null) {
+                    totalSizeOut[0] = response.body().contentLength();
+                }
+            }
+            ResponseBody body = response.body();
+            if (body == null)
+                return new byte[0];
+            return readAtMost(body.byteStream(), length);
+        }
+    }
+
+    private static byte[] readAtMost(InputStream inputStream, int length) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.min(length, HEAD_BYTES));
+        byte[] buffer = new byte[16 * 1024];
+        int remaining = length;
+        int read;
+        while (remaining > 0 && (read = inputStream.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+            outputStream.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return outputStream.toByteArray();
+    }
+
+    // MP4 / MOV
+
+    private static boolean isMp4Box(String type) {
+        return type.equals("ftyp") || type.equals("moov") || type.equals("mdat")
+                || type.equals("free") || type.equals("wide") || type.equals("skip");
+    }
+
+    private void probeMp4(String url, byte[] head, Result result) throws IOException {
+        long offset = 0;
+        for (int boxes = 0; boxes < MAX_TOP_LEVEL_BOXES; boxes++) {
+            byte[] header;
+            int headerOffset;
+            if (offset + 16 <= head.length) {
+                header = head;
+                headerOffset = (int) offset;
+            } else if (result.sizeBytes < 0 || offset + 8 <= result.sizeBytes) {
+                // Box starts beyond the first read, typically moov after a large mdat
+                try {
+                    header = readRange(url, offset, 16, null);
+                } catch (IOException e) {
+                    Utils.log("Probe found no box header at " + offset + " in " + url);
+                    return;
+                }
+                headerOffset = 0;
+                if (header.length < 8)
+                    return;
+            } else {
+                return;
+            }
+
+            long size = uint32(header, headerOffset);
+            String type = fourcc(header, headerOffset + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.length < headerOffset + 16)
+                    return;
+                size = uint64(header, headerOffset + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                if (result.sizeBytes < 0)
+                    return;
+                size = result.sizeBytes - offset;
+            }
+            if (size < headerSize)
+                return;
+
+            if (type.equals("moov")) {
+                try {
+                    if (offset + size <= head.length) {
+                        parseMp4Boxes(head, (int) offset + headerSize, (int) (offset + size), result, null);
+                    } else if (size <= MAX_MOOV_BYTES) {
+                        byte[] moov = readRange(url, offset, (int) size, null);
+                        if (moov.length == size) {
+                            parseMp4Boxes(moov, headerSize, (int) size, result, null);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Malformed moov box: " + url, e);
+                }
+                return;
+            }
+            offset += size;
+        }
+    }
+
+    private static class Mp4Track {
+        String handler;
+        String sampleFormat;
+        int width;
+        int height;
+    }
+
+    private static void parseMp4Boxes(byte[] data, int start, int end, Result result, Mp4Track track) {
+        int offset = start;
+        while (offset + 8 <= end) {
+            long size = uint32(data, offset);
+            String type = fourcc(data, offset + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                if (offset + 16 > end)
+                    return;
+                size = uint64(data, offset + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - offset;
+            }
+            if (size < headerSize || offset + size > end)
+                return;
+            final int payload = offset + headerSize;
+            final int boxEnd = (int) (offset + size);
+
+            switch (type) {
+                case "mvhd": {
+                    if (payload + 32 > boxEnd)
+                        break;
+                    int version = data[payload] & 0xFF;
+                    long timescale;
+                    long duration;
+                    boolean unknownDuration;
+                    if (version == 1) {
+                        timescale = uint32(data, payload + 20);
+                        duration = uint64(data, payload + 24);
+                        unknownDuration = duration == 0xFFFFFFFFFFFFFFFFL;
+                    } else {
+                        timescale = uint32(data, payload + 12);
+                        duration = uint32(data, payload + 16);
+                        unknownDuration = duration == 0xFFFFFFFFL;
+                    }
+                    // All ones means the duration is not known, e.g. fragmented files
+                    if (timescale > 0 && duration > 0 && !unknownDuration) {
+                        result.durationMs = duration * 1000 / timescale;
+                    }
+                    break;
+                }
+                case "trak": {
+                    Mp4Track trak = new Mp4Track();
+                    parseMp4Boxes(data, payload, boxEnd, result, trak);
+                    applyMp4Track(trak, result);
+                    break;
+                }
+                case "mdia":
+                case "minf":
+                case "stbl":
+                    parseMp4Boxes(data, payload, boxEnd, result, track);
+                    break;
+                case "tkhd":
+                    if (track != null) {
+                        int widthOffset = payload + ((data[payload] & 0xFF) == 1 ? 88 : 76);
+                        if (widthOffset + 8 <= boxEnd) {
+                            // 16.16 fixed point
+                            track.width = (int) (uint32(data, widthOffset) >> 16);
+                            track.height = (int) (uint32(data, widthOffset + 4) >> 16);
+                        }
+                    }
+                    break;
+                case "hdlr":
+                    if (track != null && payload + 12 <= boxEnd) {
+                        track.handler = fourcc(data, payload + 8);
+                    }
+                    break;
+                case "stsd":
+                    if (track != null && payload + 16 <= boxEnd) {
+                        track.sampleFormat = fourcc(data, payload + 12);
+                        // Visual sample entry carries the coded size
+                        if (track.width == 0 && payload + 44 <= boxEnd && "vide".equals(track.handler)) {
+                            track.width = uint16(data, payload + 40);
+                            track.height = uint16(data, payload + 42);
+                        }
+                    }
+                    break;
+            }
+            offset = boxEnd;
+        }
+    }
+
+    private static void applyMp4Track(Mp4Track track, Result result) {
+        if ("vide".equals(track.handler)) {
+            if (result.videoCodec == null && track.sampleFormat != null) {
+                result.videoCodec = codecName(track.sampleFormat);
+            }
+            if (track.width > result.width) {
+                result.width = track.width;
+                result.height = track.height;
+            }
+        } else if ("soun".equals(track.handler)) {
+            if (result.audioCodec == null && track.sampleFormat != null) {
+                result.audioCodec = codecName(track.sampleFormat);
+            }
+        }
+    }
+
+    // Matroska / WebM
+
+    private static final int EBML_HEADER = 0x1A45DFA3;
+    private static final int EBML_DOC_TYPE = 0x4282;
+    private static final int MKV_SEGMENT = 0x18538067;
+    private static final int MKV_INFO = 0x1549A966;
+    private static final int MKV_TIMECODE_SCALE = 0x2AD7B1;
+    private static final int MKV_DURATION = 0x4489;
+    private static final int MKV_TRACKS = 0x1654AE6B;
+    private static final int MKV_TRACK_ENTRY = 0xAE;
+    private static final int MKV_TRACK_TYPE = 0x83;
+    private static final int MKV_CODEC_ID = 0x86;
+    private static final int MKV_VIDEO = 0xE0;
+    private static final int MKV_PIXEL_WIDTH = 0xB0;
+    private static final int MKV_PIXEL_HEIGHT = 0xBA;
+    private static final int MKV_CLUSTER = 0x1F43B675;
+
+    private static class MkvState {
+        long timecodeScale = 1_000_000;
+        double duration = -1;
+        int trackType;
+        String codecId;
+        int width;
+        int height;
+    }
+
+    private static void probeMatroska(byte[] head, Result result) {
+        MkvState state = new MkvState();
+        parseEbml(head, 0, head.length, result, state);
+        if (state.duration > 0) {
+            result.durationMs = (long) (state.duration * state.timecodeScale / 1_000_000);
+        }
+    }
+
+    /**
+     * Walk EBML elements in [start, end)
+     * @return false once a cluster (media data) is reached and parsing should stop
+     */
+    private static boolean parseEbml(byte[] data, int start, int end, Result result, MkvState state) {
+        int offset = start;
+        while (offset < end) {
+            long[] id = readVint(data, offset, end, true);
+            if (id == null)
+                return false;
+            long[] size = readVint(data, offset + (int) id[1], end, false);
+            if (size == null)
+                return false;
+            final int payload = offset + (int) id[1] + (int) size[1];
+            // Unknown sized or truncated master elements continue to the end of the buffer
+            final int elementEnd = size[0] < 0 || payload + size[0] > end ? end : payload + (int) size[0];
+            final boolean complete = size[0] >= 0 && payload + size[0] <= end;
+
+            switch ((int) id[0]) {
+                case MKV_CLUSTER:
+                    return false;
+                case EBML_HEADER:
+                case MKV_SEGMENT:
+                case MKV_INFO:
+                case MKV_TRACKS:
+                case MKV_VIDEO:
+                    if (!parseEbml(data, payload, elementEnd, result, state))
+                        return false;
+                    break;
+                case MKV_TRACK_ENTRY:
+                    state.trackType = 0;
+                    state.codecId = null;
+                    state.width = 0;
+                    state.height = 0;
+                    if (!parseEbml(data, payload, elementEnd, result, state))
+                        return false;
+                    applyMkvTrack(state, result);
+                    break;
+                case EBML_DOC_TYPE:
+                    if (complete && "webm".equals(ebmlString(data, payload, elementEnd))) {
+                        result.container = "WebM";
+                    }
+                    break;
+                case MKV_TIMECODE_SCALE:
+                    if (complete)
+                        state.timecodeScale = ebmlUInt(data, payload, elementEnd);
+                    break;
+                case MKV_DURATION:
+                    if (complete) {
+                        if (elementEnd - payload == 4) {
+                            state.duration = Float.intBitsToFloat((int) ebmlUInt(data, payload, elementEnd));
+                        } else if (elementEnd - payload == 8) {
+                            state.duration = Double.longBitsToDouble(ebmlUInt(data, payload, elementEnd));
+                        }
+                    }
+                    break;
+                case MKV_TRACK_TYPE:
+                    if (complete)
+                        state.trackType = (int) ebmlUInt(data, payload, elementEnd);
+                    break;
+                case MKV_CODEC_ID:
+                    if (complete)
+                        state.codecId = ebmlString(data, payload, elementEnd);
+                    break;
+                case MKV_PIXEL_WIDTH:
+                    if (complete)
+                        state.width = (int) ebmlUInt(data, payload, elementEnd);
+                    break;
+                case MKV_PIXEL_HEIGHT:
+                    if (complete)
+                        state.height = (int) ebmlUInt(data, payload, elementEnd);
+                    break;
+            }
+            if (!complete)
+                return false;
+            offset = elementEnd;
+        }
+        return true;
+    }
+
+    private static void applyMkvTrack(MkvState state, Result result) {
+        if (state.trackType == 1) {
+            if (result.videoCodec == null && state.codecId != null) {
+                result.videoCodec = codecName(state.codecId);
+            }
+            if (state.width > result.width) {
+                result.width = state.width;
+                result.height = state.height;
+            }
+        } else if (state.trackType == 2) {
+            if (result.audioCodec == null && state.codecId != null) {
+                result.audioCodec = codecName(state.codecId);
+            }
+        }
+    }
+
+    /**
+     * Read an EBML variable length integer
+     * @return {value, length in bytes}, value is -1 for unknown sizes; null if invalid
+     */
+    private static long[] readVint(byte[] data, int offset, int end, boolean keepMarker) {
+        if (offset >= end)
+            return null;
+        int first = data[offset] & 0xFF;
+        if (first == 0)
+            return null;
+        int length = Integer.numberOfLeadingZeros(first) - 23;
+        if (offset + length > end)
+            return null;
+        long value = keepMarker ? first : first & (0xFF >> length);
+        boolean allOnes = value == (0xFF >> length);
+        for (int i = 1; i < length; i++) {
+            int b = data[offset + i] & 0xFF;
+            allOnes &= b == 0xFF;
+            value = (value << 8) | b;
+        }
+        if (!keepMarker && allOnes) {
+            value = -1;
+        }
+        return new long[] { value, length };
+    }
+
+    private static long ebmlUInt(byte[] data, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = (value << 8) | (data[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static String ebmlString(byte[] data, int start, int end) {
+        int length = end - start;
+        while (length > 0 && data[start + length - 1] == 0) {
+            length--;
+        }
+        return new String(data, start, length, StandardCharsets.UTF_8);
+    }
+
+    // HLS
+
+    private void probeHls(String url, byte[] head, Result result) throws IOException {
+        String playlist = new String(head, StandardCharsets.UTF_8);
+        if (head.length == HEAD_BYTES) {
+            playlist = new String(readRange(url, 0, MAX_MANIFEST_BYTES, null), StandardCharsets.UTF_8);
+        }
+
+        if (playlist.contains("#EXT-X-STREAM-INF")) {
+            // Master playlist: describe the highest bandwidth variant, its media playlist has the duration
+            long bestBandwidth = -1;
+            String bestVariant = null;
+            String[] lines = playlist.split("\\r?\\n");
+            for (int i = 0; i < lines.length; i++) {
+                if (!lines[i].startsWith("#EXT-X-STREAM-INF:"))
+                    continue;
+                Map<String, String> attributes = parseHlsAttributes(lines[i].substring(lines[i].indexOf(':') + 1));
+                long bandwidth = parseLong(attributes.get("BANDWIDTH"), 0);
+                if (bandwidth <= bestBandwidth)
+                    continue;
+                bestBandwidth = bandwidth;
+                bestVariant = nextUriLine(lines, i + 1);
+                result.width = 0;
+                result.height = 0;
+                String resolution = attributes.get("RESOLUTION");
+                if (resolution != null) {
+                    String[] size = resolution.split("x");
+                    if (size.length == 2) {
+                        result.width = (int) parseLong(size[0], 0);
+                        result.height = (int) parseLong(size[1], 0);
+                    }
+                }
+                // Codecs of a lower variant must not stay, applyCodecList only fills unset ones
+                result.videoCodec = null;
+                result.audioCodec = null;
+                applyCodecList(attributes.get("CODECS"), result, true);
+            }
+            if (bestVariant != null) {
+                String variantUrl = resolveUrl(url, bestVariant);
+                try {
+                    String media = new String(readRange(variantUrl, 0, MAX_MANIFEST_BYTES, null), StandardCharsets.UTF_8);
+                    result.durationMs = hlsMediaDuration(media);
+                } catch (IOException e) {
+                    Utils.log("Probe could not read variant playlist: " + variantUrl);
+                }
+            }
+        } else {
+            result.durationMs = hlsMediaDuration(playlist);
+        }
+    }
+
+    /**
+     * Sum of segment durations of a VOD media playlist, -1 for live playlists
+     */
+    private static long hlsMediaDuration(String playlist) {
+        if (!playlist.contains("#EXT-X-ENDLIST"))
+            return -1;
+        double seconds = 0;
+        for (String line : playlist.split("\\r?\\n")) {
+            if (line.startsWith("#EXTINF:")) {
+                int end = line.indexOf(',');
+                String value = line.substring(8, end > 0 ? end : line.length()).trim();
+                try {
+                    seconds += Double.parseDouble(value);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return seconds > 0 ? (long) (seconds * 1000) : -1;
+    }
+
+    private static Map<String, String> parseHlsAttributes(String attributeList) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = HLS_ATTRIBUTE.matcher(attributeList);
+        while (matcher.find()) {
+            String value = matcher.group(2);
+            if (value.startsWith("\"") && value.endsWith("\"") && value.length() >= 2) {
+                value = value.substring(1, value.length() - 1);
+            }
+            attributes.put(matcher.group(1), value);
+        }
+        return attributes;
+    }
+
+    private static String nextUriLine(String[] lines, int start) {
+        for (int i = start; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+                return line;
+        }
+        return null;
+    }
+
+    private static String resolveUrl(String baseUrl, String reference) {
+        try {
+            return new java.net.URL(new java.net.URL(baseUrl), reference).toString();
+        } catch (java.net.MalformedURLException e) {
+            return reference;
+        }
+    }
+
+    // DASH
+
+    private static boolean isDashManifest(byte[] head) {
+        int length = Math.min(head.length, 2048);
+        return new String(head, 0, length, StandardCharsets.UTF_8).contains("<MPD");
+    }
+
+    private void probeDash(byte[] head, Result result) {
+        String manifest = new String(head, StandardCharsets.UTF_8);
+        int mpdStart = manifest.indexOf("<MPD");
+        int mpdEnd = manifest.indexOf('>', mpdStart);
+        if (mpdEnd > mpdStart) {
+            Map<String, String> mpd = parseXmlAttributes(manifest.substring(mpdStart, mpdEnd));
+            String duration = mpd.get("mediaPresentationDuration");
+            if (duration != null) {
+                result.durationMs = parseIsoDuration(duration);
+            }
+        }
+
+        Matcher matcher = XML_TAG.matcher(manifest);
+        while (matcher.find()) {
+            Map<String, String> attributes = parseXmlAttributes(matcher.group(2));
+            int width = (int) parseLong(attributes.get("width"), 0);
+            if (width > result.width) {
+                result.width = width;
+                result.height = (int) parseLong(attributes.get("height"), 0);
+            }
+            String codecs = attributes.get("codecs");
+            String mimeType = attributes.get("mimeType");
+            boolean audio = (mimeType != null && mimeType.startsWith("audio/")) || "audio".equals(attributes.get("contentType"));
+            applyCodecList(codecs, result, !audio);
+        }
+    }
+
+    private static Map<String, String> parseXmlAttributes(String tag) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = XML_ATTRIBUTE.matcher(tag);
+        while (matcher.find()) {
+            attributes.put(matcher.group(1), matcher.group(2));
+        }
+        return attributes;
+    }
+
+    static long parseIsoDuration(String duration) {
+        Matcher matcher = ISO_DURATION.matcher(duration.trim());
+        if (!matcher.matches())
+            return -1;
+        double seconds = 0;
+        if (matcher.group(1) != null) seconds += Long.parseLong(matcher.group(1)) * 86400;
+        if (matcher.group(2) != null) seconds += Long.parseLong(matcher.group(2)) * 3600;
+        if (matcher.group(3) != null) seconds += Long.parseLong(matcher.group(3)) * 60;
+        if (matcher.group(4) != null) seconds += Double.parseDouble(matcher.group(4));
+        return seconds > 0 ? (long) (seconds * 1000) : -1;
+    }
+
+    // Codecs
+
+    /**
+     * Apply RFC 6381 codec strings such as "avc1.64001f,mp4a.40.2"
+     */
+    private static void applyCodecList(String codecs, Result result, boolean allowVideo) {
+        if (codecs == null)
+            return;
+        for (String codec : codecs.split(",")) {
+            String fourcc = codec.trim();
+            int dot = fourcc.indexOf('.');
+            if (dot > 0) {
+                fourcc = fourcc.substring(0, dot);
+            }
+            if (isVideoCodec(fourcc)) {
+                if (allowVideo && result.videoCodec == null) {
+                    result.videoCodec = codecName(fourcc);
+                }
+            } else if (!fourcc.isEmpty() && result.audioCodec == null) {
+                result.audioCodec = codecName(fourcc);
+            }
+        }
+    }
+
+    private static boolean isVideoCodec(String fourcc) {
+        switch (fourcc) {
+            case "avc1":
+            case "avc3":
+            case "hvc1":
+            case "hev1":
+            case "dvh1":
+            case "dvhe":
+            case "av01":
+            case "vp08":
+            case "vp09":
+            case "mp4v":
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Human readable name for MP4 sample formats, RFC 6381 prefixes and Matroska codec ids
+     */
+    static String codecName(String codec) {
+        switch (codec) {
+            case "avc1":
+            case "avc3":
+            case "V_MPEG4/ISO/AVC":
+                return "H.264";
+            case "hvc1":
+            case "hev1":
+            case "V_MPEGH/ISO/HEVC":
+                return "HEVC";
+            case "dvh1":
+            case "dvhe":
+                return "Dolby Vision";
+            case "av01":
+            case "V_AV1":
+                return "AV1";
+            case "vp08":
+            case "V_VP8":
+                return "VP8";
+            case "vp09":
+            case "V_VP9":
+                return "VP9";
+            case "mp4v":
+                return "MPEG-4";
+            case "mp4a":
+            case "A_AAC":
+                return "AAC";
+            case "ac-3":
+            case "A_AC3":
+                return "AC-3";
+            case "ec-3":
+            case "A_EAC3":
+                return "E-AC-3";
+            case "Opus":
+            case "opus":
+            case "A_OPUS":
+                return "Opus";
+            case "A_VORBIS":
+                return "Vorbis";
+            case "fLaC":
+            case "A_FLAC":
+                return "FLAC";
+            case "A_DTS":
+                return "DTS";
+            case ".mp3":
+            case "A_MPEG/L3":
+                return "MP3";
+        }
+        if (codec.startsWith("A_AAC"))
+            return "AAC";
+        if (codec.startsWith("V_") || codec.startsWith("A_"))
+            return codec.substring(2);
+        return codec.trim();
+    }
+
+    // Byte helpers
+
+    private static boolean startsWith(byte[] data, String prefix) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.US_ASCII);
+        int offset = 0;
+        // Skip UTF-8 byte order mark
+        if (data.length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+            offset = 3;
+        }
+        if (data.length < offset + bytes.length)
+            return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (data[offset + i] != bytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static String fourcc(byte[] data, int offset) {
+        return new String(data, offset, 4, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int uint16(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static long uint32(byte[] data, int offset) {
+        return ((long) (data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static long uint64(byte[] data, int offset) {
+        return (uint32(data, offset) << 32) | uint32(data, offset + 4);
+    }
+
+    private static long parseLong(String value, long fallback) {
+        if (value == null)
+            return fallback;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
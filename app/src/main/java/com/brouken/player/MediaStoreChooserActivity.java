@@ -3,6 +3,7 @@ package com.brouken.player;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -11,15 +12,18 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.MediaStore;
+import android.text.format.Formatter;
+import android.util.DisplayMetrics;
+import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +38,14 @@ public class MediaStoreChooserActivity extends Activity {
     Integer bucketId;
     boolean subtitles;
     String title;
+    Cursor filesCursor;
+    Map<String, Long> positions;
+    AlertDialog gridDialog;
+    int gridColumns;
+    int gridItemWidth;
+
+    // Target width of a grid cell, the actual width fills the screen
+    private static final int GRID_CELL_WIDTH_DP = 180;
 
     @RequiresApi(api = Build.VERSION_CODES.R)
     @Override
@@ -75,6 +87,7 @@ public class MediaStoreChooserActivity extends Activity {
 
     @RequiresApi(api = Build.VERSION_CODES.R)
     private void start() {
+        computeGrid();
         if (bucketId == null) {
             Utils.scanMediaStorage(this);
             showBuckets();
@@ -97,53 +110,113 @@ public class MediaStoreChooserActivity extends Activity {
         }
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.Q)
-    HashMap<Integer, String> query(String projectionId, String projectionName, String selection) {
+    static class Bucket {
+        final int id;
+        final String name;
+        int count;
+        long size;
+        // Most recently modified video, shown as the bucket's thumbnail
+        long coverId = -1;
+        long coverDateModified;
+
+        Bucket(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    Cursor query(String[] projection, String selection, String sortOrder) {
         Uri collection = MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL);
         if (subtitles) {
             collection = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL);
         }
-        HashMap<Integer, String> hashMap = new HashMap<>();
-        try (Cursor cursor = getContentResolver().query(collection, new String[] { projectionId, projectionName }, selection, null, null)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                int columnId = cursor.getColumnIndex(projectionId);
-                int columnName = cursor.getColumnIndex(projectionName);
-
-                do {
-                    int id = cursor.getInt(columnId);
-                    String name = cursor.getString(columnName);
-                    if (name == null) {
-                        continue;
-                    }
-                    if (!hashMap.containsKey(id)) {
-                        hashMap.put(id, name);
-                    }
-                } while (cursor.moveToNext());
+        Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder);
+        return getContentResolver().query(collection, projection, queryArgs, null);
+    }
+
+    /**
+     * Buckets with their number of files and total size, in a single pass over rows sorted by bucket
+     * @return the buckets or null if the query failed
+     */
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    List<Bucket> queryBuckets(String selection) {
+        List<Bucket> buckets = new ArrayList<>();
+        String[] projection = { MediaStore.MediaColumns.BUCKET_ID, MediaStore.MediaColumns.BUCKET_DISPLAY_NAME, MediaStore.MediaColumns.SIZE,
+                MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DATE_MODIFIED };
+        // Sorting by id after the name keeps the rows of every bucket together, even if two buckets share a name
+        String sortOrder = MediaStore.MediaColumns.BUCKET_DISPLAY_NAME + " COLLATE NOCASE, " + MediaStore.MediaColumns.BUCKET_ID;
+        try (Cursor cursor = query(projection, selection, sortOrder)) {
+            if (cursor == null)
+                return null;
+            int columnId = cursor.getColumnIndex(MediaStore.MediaColumns.BUCKET_ID);
+            int columnName = cursor.getColumnIndex(MediaStore.MediaColumns.BUCKET_DISPLAY_NAME);
+            int columnSize = cursor.getColumnIndex(MediaStore.MediaColumns.SIZE);
+            int columnVideoId = cursor.getColumnIndex(MediaStore.MediaColumns._ID);
+            int columnDateModified = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+
+            Bucket bucket = null;
+            while (cursor.moveToNext()) {
+                if (cursor.isNull(columnName)) {
+                    continue;
+                }
+                int id = cursor.getInt(columnId);
+                if (bucket == null || bucket.id != id) {
+                    bucket = new Bucket(id, cursor.getString(columnName));
+                    buckets.add(bucket);
+                }
+                bucket.count++;
+                bucket.size += cursor.getLong(columnSize);
+                long dateModified = cursor.getLong(columnDateModified);
+                if (bucket.coverId < 0 || dateModified > bucket.coverDateModified) {
+                    bucket.coverId = cursor.getLong(columnVideoId);
+                    bucket.coverDateModified = dateModified;
+                }
             }
         } catch (Exception x) {
             x.printStackTrace();
+            return null;
         }
-        // Sort map by value
-        List<Map.Entry<Integer, String>> list = new LinkedList<>(hashMap.entrySet());
-        Collections.sort(list, (o1, o2) -> o1.getValue().compareToIgnoreCase(o2.getValue()));
-        HashMap<Integer, String> sortedMap = new LinkedHashMap<>();
-        for (Map.Entry<Integer, String> map : list) {
-            sortedMap.put(map.getKey(), map.getValue());
-        }
-        return sortedMap;
+        return buckets;
     }
 
     @RequiresApi(api = Build.VERSION_CODES.R)
     void showBuckets() {
-        String selection = "";
+        String selection = null;
         if (subtitles) {
-            selection += MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE;
+            selection = MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE;
+        }
+
+        MediaStoreListingCache cache = MediaStoreListingCache.getInstance(this);
+        String cacheKey = subtitles + ":" + selection;
+        List<Bucket> cached = cache.getBuckets(cacheKey);
+        if (cached == null) {
+            int generation = cache.getGeneration();
+            List<Bucket> queried = queryBuckets(selection);
+            // A failed query is shown as empty, but not remembered
+            cached = queried != null ? cache.putBuckets(cacheKey, queried, generation) : Collections.<Bucket>emptyList();
         }
+        final List<Bucket> buckets = cached;
 
-        HashMap<Integer, String> buckets = query(MediaStore.MediaColumns.BUCKET_ID, MediaStore.MediaColumns.BUCKET_DISPLAY_NAME, selection);
+        if (!subtitles && buckets.size() > 0) {
+            showGrid(getString(R.string.choose_file), MediaStoreGridAdapter.forBuckets(this, gridItemWidth, buckets, (position, id) -> {
+                dismissGrid();
+                Intent intent = new Intent(MediaStoreChooserActivity.this, MediaStoreChooserActivity.class);
+                intent.putExtra(SUBTITLES, subtitles);
+                intent.putExtra(BUCKET_ID, buckets.get(position).id);
+                intent.putExtra(TITLE, buckets.get(position).name);
+                startActivityForResult(intent, 0);
+            }));
+            return;
+        }
 
-        Integer[] bucketIds = buckets.keySet().toArray(new Integer[0]);
-        String[] bucketDisplayNames = buckets.values().toArray(new String[0]);
+        String[] bucketLabels = new String[buckets.size()];
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket bucket = buckets.get(i);
+            bucketLabels[i] = bucket.name + " (" + bucket.count + ", " + Formatter.formatShortFileSize(this, bucket.size) + ")";
+        }
 
         AlertDialog.Builder alertDialogBuilder;
         if (buckets.size() == 0) {
@@ -152,11 +225,11 @@ public class MediaStoreChooserActivity extends Activity {
         } else {
             alertDialogBuilder = new AlertDialog.Builder(this, R.style.MediaStoreChooserDialog);
             alertDialogBuilder.setTitle(getString(R.string.choose_file));
-            alertDialogBuilder.setItems(bucketDisplayNames, (dialogInterface, i) -> {
+            alertDialogBuilder.setItems(bucketLabels, (dialogInterface, i) -> {
                 Intent intent = new Intent(MediaStoreChooserActivity.this, MediaStoreChooserActivity.class);
                 intent.putExtra(SUBTITLES, subtitles);
-                intent.putExtra(BUCKET_ID, bucketIds[i]);
-                intent.putExtra(TITLE, bucketDisplayNames[i]);
+                intent.putExtra(BUCKET_ID, buckets.get(i).id);
+                intent.putExtra(TITLE, buckets.get(i).name);
                 startActivityForResult(intent, 0);
             });
         }
@@ -166,33 +239,141 @@ public class MediaStoreChooserActivity extends Activity {
 
     @RequiresApi(api = Build.VERSION_CODES.R)
     void showFiles(int bucketId) {
-        String selection = MediaStore.MediaColumns.BUCKET_ID + "=" + bucketId;
+        String selection = MediaStore.MediaColumns.BUCKET_ID + "=" + bucketId
+                + " AND " + MediaStore.MediaColumns.DISPLAY_NAME + " IS NOT NULL";
 
         if (subtitles) {
             selection += " AND " + MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE;
         }
 
-        HashMap<Integer, String> files = query(MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME, selection);
+        if (filesCursor != null) {
+            filesCursor.close();
+            filesCursor = null;
+        }
+        // Listings are shared by all browser screens, so going back to a bucket does not query again
+        MediaStoreListingCache cache = MediaStoreListingCache.getInstance(this);
+        String cacheKey = subtitles + ":" + selection;
+        Cursor cachedCursor = cache.getFiles(cacheKey);
+        if (cachedCursor != null) {
+            showFiles(cachedCursor);
+            return;
+        }
+        // Queried and copied once in the background, the screen shows the copy that is cached
+        final String[] projection = subtitles ? new String[] { MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME }
+                : MediaStoreGridAdapter.VIDEO_PROJECTION;
+        final String querySelection = selection;
+        final String sortOrder = MediaStore.MediaColumns.DISPLAY_NAME + " COLLATE NOCASE";
+        cache.loadFiles(cacheKey, () -> query(projection, querySelection, sortOrder), loadedCursor -> {
+            if (isDestroyed()) {
+                if (loadedCursor != null) {
+                    loadedCursor.close();
+                }
+                return;
+            }
+            showFiles(loadedCursor);
+        });
+    }
+
+    /**
+     * @param cursor listing of the bucket or null if the query failed
+     */
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private void showFiles(final Cursor cursor) {
+        filesCursor = cursor;
 
-        Integer[] ids = files.keySet().toArray(new Integer[0]);
-        String[] displayNames = files.values().toArray(new String[0]);
+        if (!subtitles && cursor != null) {
+            if (positions != null) {
+                showVideoGrid(cursor);
+                return;
+            }
+            // Playback progress is shown on the items, the grid is bound once the positions were read in the background
+            StoreBootstrap.loadPositions(this, loadedPositions -> {
+                if (isDestroyed() || cursor != filesCursor)
+                    return;
+                positions = loadedPositions;
+                showVideoGrid(cursor);
+            });
+            return;
+        }
 
         AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(this, R.style.MediaStoreChooserDialog);
         if (title != null) {
             alertDialogBuilder.setTitle(title);
         }
-        alertDialogBuilder.setItems(displayNames, (dialogInterface, i) -> {
-            Uri contentUri;
-            if (subtitles) {
-                contentUri = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL, ids[i]);
-            } else {
-                contentUri = ContentUris.withAppendedId(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, ids[i]);
-            }
-            Intent data = new Intent("RESULT", contentUri);
+        if (cursor == null) {
+            alertDialogBuilder.setMessage(R.string.mediastore_empty);
+        } else {
+            alertDialogBuilder.setCursor(cursor, (dialogInterface, i) -> {
+                if (!cursor.moveToPosition(i)) {
+                    return;
+                }
+                long id = cursor.getLong(cursor.getColumnIndex(MediaStore.MediaColumns._ID));
+                Uri contentUri;
+                if (subtitles) {
+                    contentUri = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL, id);
+                } else {
+                    contentUri = ContentUris.withAppendedId(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, id);
+                }
+                Intent data = new Intent("RESULT", contentUri);
+                setResult(RESULT_OK, data);
+                finish();
+            }, MediaStore.MediaColumns.DISPLAY_NAME);
+        }
+        alertDialogBuilder.setOnCancelListener(dialogInterface -> finish());
+        alertDialogBuilder.show();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private void showVideoGrid(Cursor cursor) {
+        showGrid(title, MediaStoreGridAdapter.forVideos(this, gridItemWidth, cursor, positions, (position, id) -> {
+            Intent data = new Intent("RESULT", MediaStoreGridAdapter.getVideoUri(id));
             setResult(RESULT_OK, data);
             finish();
-        });
+        }));
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private void showGrid(String title, MediaStoreGridAdapter adapter) {
+        RecyclerView recyclerView = new RecyclerView(this);
+        recyclerView.setLayoutManager(new GridLayoutManager(this, gridColumns));
+        recyclerView.setHasFixedSize(true);
+        // Rows scrolled just out of view stay bound, so scrolling back does not rebind them
+        recyclerView.setItemViewCacheSize(gridColumns * 2);
+        recyclerView.setAdapter(adapter);
+
+        AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(this, R.style.MediaStoreChooserDialog);
+        if (title != null) {
+            alertDialogBuilder.setTitle(title);
+        }
+        alertDialogBuilder.setView(recyclerView);
         alertDialogBuilder.setOnCancelListener(dialogInterface -> finish());
-        alertDialogBuilder.show();
+        gridDialog = alertDialogBuilder.show();
+        if (gridDialog.getWindow() != null) {
+            gridDialog.getWindow().setLayout(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+        }
+    }
+
+    private void dismissGrid() {
+        if (gridDialog != null) {
+            gridDialog.dismiss();
+            gridDialog = null;
+        }
+    }
+
+    private void computeGrid() {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        // Dialog insets and cell padding
+        int availableWidth = metrics.widthPixels - (int) (48 * metrics.density);
+        gridColumns = Math.max(2, availableWidth / (int) (GRID_CELL_WIDTH_DP * metrics.density));
+        gridItemWidth = availableWidth / gridColumns - (int) (8 * metrics.density);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (filesCursor != null) {
+            filesCursor.close();
+            filesCursor = null;
+        }
     }
 }
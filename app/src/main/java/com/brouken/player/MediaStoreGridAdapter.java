@@ -0,0 +1,254 @@
+package com.brouken.player;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grid of video buckets or of the videos in a bucket, with thumbnails, durations and resume progress.
+ * Videos are read from the query cursor as they are bound. Cells have a fixed size, so setting a
+ * thumbnail never causes a layout pass.
+ */
+@RequiresApi(api = Build.VERSION_CODES.R)
+class MediaStoreGridAdapter extends RecyclerView.Adapter<MediaStoreGridAdapter.ViewHolder> {
+
+    interface OnItemClickListener {
+        /**
+         * @param id bucket id or video id
+         */
+        void onItemClick(int position, long id);
+    }
+
+    private final Context context;
+    private final MediaThumbnailLoader thumbnailLoader;
+    private final OnItemClickListener onItemClickListener;
+    private final int itemWidth;
+    private final int thumbnailHeight;
+    // Either buckets or a cursor of videos
+    private final List<MediaStoreChooserActivity.Bucket> buckets;
+    private final Cursor cursor;
+    private final Map<String, Long> positions;
+    private int columnId;
+    private int columnName;
+    private int columnDuration;
+    private int columnDateModified;
+
+    static final String[] VIDEO_PROJECTION = {
+            MediaStore.MediaColumns._ID,
+            MediaStore.MediaColumns.DISPLAY_NAME,
+            MediaStore.MediaColumns.DURATION,
+            MediaStore.MediaColumns.DATE_MODIFIED
+    };
+
+    private MediaStoreGridAdapter(Context context, int itemWidth, List<MediaStoreChooserActivity.Bucket> buckets,
+                                  Cursor cursor, Map<String, Long> positions, OnItemClickListener onItemClickListener) {
+        this.context = context;
+        this.thumbnailLoader = MediaThumbnailLoader.getInstance(context);
+        this.itemWidth = itemWidth;
+        this.thumbnailHeight = itemWidth * 9 / 16;
+        this.buckets = buckets;
+        this.cursor = cursor;
+        this.positions = positions;
+        this.onItemClickListener = onItemClickListener;
+        if (cursor != null) {
+            columnId = cursor.getColumnIndex(MediaStore.MediaColumns._ID);
+            columnName = cursor.getColumnIndex(MediaStore.MediaColumns.DISPLAY_NAME);
+            columnDuration = cursor.getColumnIndex(MediaStore.MediaColumns.DURATION);
+            columnDateModified = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+        }
+        setHasStableIds(true);
+    }
+
+    static MediaStoreGridAdapter forBuckets(Context context, int itemWidth, List<MediaStoreChooserActivity.Bucket> buckets,
+                                            OnItemClickListener onItemClickListener) {
+        return new MediaStoreGridAdapter(context, itemWidth, buckets, null, null, onItemClickListener);
+    }
+
+    /**
+     * @param cursor query of {@link #VIDEO_PROJECTION}, closed by the caller
+     * @param positions saved playback positions keyed by media uri, loaded before binding so it never reads from disk
+     */
+    static MediaStoreGridAdapter forVideos(Context context, int itemWidth, Cursor cursor, Map<String, Long> positions,
+                                           OnItemClickListener onItemClickListener) {
+        return new MediaStoreGridAdapter(context, itemWidth, null, cursor, positions, onItemClickListener);
+    }
+
+    @Override
+    public int getItemCount() {
+        return buckets != null ? buckets.size() : cursor.getCount();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if (buckets != null)
+            return buckets.get(position).id;
+        return cursor.moveToPosition(position) ? cursor.getLong(columnId) : RecyclerView.NO_ID;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder(createItemView());
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        final long id;
+        if (buckets != null) {
+            MediaStoreChooserActivity.Bucket bucket = buckets.get(position);
+            id = bucket.id;
+            holder.nameText.setText(bucket.name);
+            holder.detailText.setText(bucket.count + " • " + Formatter.formatShortFileSize(context, bucket.size));
+            holder.detailText.setVisibility(View.VISIBLE);
+            holder.durationText.setVisibility(View.GONE);
+            holder.progressBar.setVisibility(View.GONE);
+            loadThumbnail(holder, bucket.coverId, bucket.coverDateModified, R.drawable.ic_folder_open_24dp);
+        } else {
+            if (!cursor.moveToPosition(position))
+                return;
+            id = cursor.getLong(columnId);
+            holder.nameText.setText(cursor.getString(columnName));
+            holder.detailText.setVisibility(View.GONE);
+
+            long durationMs = cursor.getLong(columnDuration);
+            if (durationMs > 0) {
+                holder.durationText.setText(DateUtils.formatElapsedTime(durationMs / 1000));
+                holder.durationText.setVisibility(View.VISIBLE);
+            } else {
+                holder.durationText.setVisibility(View.GONE);
+            }
+
+            Long savedPosition = durationMs > 0 ? positions.get(getVideoUri(id).toString()) : null;
+            long positionMs = savedPosition != null ? savedPosition : 0;
+            if (positionMs > 0) {
+                holder.progressBar.setProgress((int) Math.min(1000, positionMs * 1000 / durationMs));
+                holder.progressBar.setVisibility(View.VISIBLE);
+            } else {
+                holder.progressBar.setVisibility(View.GONE);
+            }
+            loadThumbnail(holder, id, cursor.getLong(columnDateModified), R.drawable.ic_video_library_24dp);
+        }
+
+        holder.itemView.setOnClickListener(v -> {
+            int adapterPosition = holder.getBindingAdapterPosition();
+            if (adapterPosition != RecyclerView.NO_POSITION) {
+                onItemClickListener.onItemClick(adapterPosition, id);
+            }
+        });
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        thumbnailLoader.cancel(holder.thumbnailImage);
+    }
+
+    static Uri getVideoUri(long id) {
+        return ContentUris.withAppendedId(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, id);
+    }
+
+    private void loadThumbnail(ViewHolder holder, long videoId, long dateModified, int placeholderResId) {
+        if (videoId < 0) {
+            thumbnailLoader.cancel(holder.thumbnailImage);
+            holder.thumbnailImage.setImageResource(placeholderResId);
+            return;
+        }
+        thumbnailLoader.load(getVideoUri(videoId), dateModified, itemWidth, thumbnailHeight, holder.thumbnailImage, placeholderResId);
+    }
+
+    private View createItemView() {
+        final int padding = dp(4);
+
+        LinearLayout layout = new LinearLayout(context);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.setPadding(padding, padding, padding, padding);
+        layout.setLayoutParams(new RecyclerView.LayoutParams(itemWidth + 2 * padding, RecyclerView.LayoutParams.WRAP_CONTENT));
+        // Focus highlight for D-pad navigation
+        layout.setFocusable(true);
+        TypedValue outValue = new TypedValue();
+        context.getTheme().resolveAttribute(android.R.attr.selectableItemBackground, outValue, true);
+        layout.setForeground(context.getDrawable(outValue.resourceId));
+
+        FrameLayout thumbnailFrame = new FrameLayout(context);
+        thumbnailFrame.setLayoutParams(new LinearLayout.LayoutParams(itemWidth, thumbnailHeight));
+        thumbnailFrame.setBackgroundColor(Color.DKGRAY);
+
+        ImageView thumbnail = new ImageView(context);
+        thumbnail.setScaleType(ImageView.ScaleType.CENTER_CROP);
+        thumbnailFrame.addView(thumbnail, new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+
+        TextView duration = new TextView(context);
+        duration.setTextSize(12);
+        duration.setTextColor(Color.WHITE);
+        duration.setBackgroundColor(0x99000000);
+        duration.setPadding(dp(4), 0, dp(4), 0);
+        FrameLayout.LayoutParams durationParams = new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.WRAP_CONTENT, FrameLayout.LayoutParams.WRAP_CONTENT, Gravity.BOTTOM | Gravity.END);
+        durationParams.setMargins(0, 0, dp(4), dp(6));
+        thumbnailFrame.addView(duration, durationParams);
+
+        ProgressBar progress = new ProgressBar(context, null, android.R.attr.progressBarStyleHorizontal);
+        progress.setMax(1000);
+        thumbnailFrame.addView(progress, new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT, dp(4), Gravity.BOTTOM));
+        layout.addView(thumbnailFrame);
+
+        TextView name = new TextView(context);
+        name.setTextSize(14);
+        name.setMaxLines(1);
+        name.setEllipsize(TextUtils.TruncateAt.END);
+        layout.addView(name);
+
+        TextView detail = new TextView(context);
+        detail.setTextSize(12);
+        detail.setMaxLines(1);
+        layout.addView(detail);
+
+        layout.setTag(new View[] { thumbnail, duration, progress, name, detail });
+        return layout;
+    }
+
+    private int dp(int value) {
+        return (int) (value * context.getResources().getDisplayMetrics().density);
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final ImageView thumbnailImage;
+        final TextView durationText;
+        final ProgressBar progressBar;
+        final TextView nameText;
+        final TextView detailText;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            View[] views = (View[]) itemView.getTag();
+            thumbnailImage = (ImageView) views[0];
+            durationText = (TextView) views[1];
+            progressBar = (ProgressBar) views[2];
+            nameText = (TextView) views[3];
+            detailText = (TextView) views[4];
+        }
+    }
+}
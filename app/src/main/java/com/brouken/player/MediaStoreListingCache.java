@@ -0,0 +1,292 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Bucket and file listings of the media browser, kept for the life of the process so going back
+ * and forth between buckets does not query MediaStore again. Everything is dropped as soon as
+ * MediaStore reports a change in the video or files collections.
+ */
+@RequiresApi(api = Build.VERSION_CODES.R)
+class MediaStoreListingCache {
+
+    private static final String TAG = "MediaStoreListingCache";
+    private static final int MAX_FILE_LISTINGS = 16;
+
+    interface FilesCallback {
+        /**
+         * Called on the main thread
+         * @param cursor new cursor over the listing, closed by the callee, or null if the query failed
+         */
+        void onFilesLoaded(Cursor cursor);
+    }
+
+    private static MediaStoreListingCache instance;
+
+    private final Map<String, List<MediaStoreChooserActivity.Bucket>> buckets = new HashMap<>();
+    private final LruCache<String, Rows> files = new LruCache<>(MAX_FILE_LISTINGS);
+    // Screens waiting for a listing being queried
+    private final Map<String, List<FilesCallback>> pendingCallbacks = new HashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Incremented on every change, a listing queried across a change is not stored
+    private int generation;
+
+    private static class Rows {
+        final String[] columnNames;
+        final Object[][] values;
+
+        Rows(String[] columnNames, Object[][] values) {
+            this.columnNames = columnNames;
+            this.values = values;
+        }
+    }
+
+    static synchronized MediaStoreListingCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaStoreListingCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MediaStoreListingCache(Context context) {
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                invalidate();
+            }
+        };
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL), true, observer);
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL), true, observer);
+    }
+
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    synchronized void invalidate() {
+        generation++;
+        buckets.clear();
+        files.evictAll();
+    }
+
+    synchronized List<MediaStoreChooserActivity.Bucket> getBuckets(String key) {
+        return buckets.get(key);
+    }
+
+    /**
+     * @param generation value of {@link #getGeneration()} from before the query
+     * @return the buckets as stored, unmodifiable
+     */
+    synchronized List<MediaStoreChooserActivity.Bucket> putBuckets(String key, List<MediaStoreChooserActivity.Bucket> list, int generation) {
+        list = Collections.unmodifiableList(list);
+        if (generation == this.generation) {
+            buckets.put(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * @return new cursor over the cached listing or null if there is none
+     */
+    synchronized Cursor getFiles(String key) {
+        Rows rows = files.get(key);
+        return rows != null ? new RowsCursor(rows) : null;
+    }
+
+    /**
+     * Query and copy a listing in the background, so MediaStore is queried once per listing
+     * and large buckets are never copied on the main thread. Screens asking for a listing that
+     * is already being loaded wait for the same query.
+     * @param query run on a worker thread, the cursor is closed once copied
+     */
+    void loadFiles(final String key, final Callable<Cursor> query, FilesCallback callback) {
+        final int generation;
+        synchronized (this) {
+            final Rows cached = files.get(key);
+            if (cached != null) {
+                mainHandler.post(() -> callback.onFilesLoaded(new RowsCursor(cached)));
+                return;
+            }
+            List<FilesCallback> callbacks = pendingCallbacks.get(key);
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
+            callbacks = new ArrayList<>();
+            callbacks.add(callback);
+            pendingCallbacks.put(key, callbacks);
+            generation = this.generation;
+        }
+        executor.execute(() -> {
+            Rows rows = null;
+            try (Cursor cursor = query.call()) {
+                if (cursor != null) {
+                    rows = copy(cursor);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Error loading " + key, e);
+            }
+            final List<FilesCallback> callbacks;
+            synchronized (this) {
+                // Failures are not cached, the next visit queries again
+                if (rows != null && generation == this.generation) {
+                    files.put(key, rows);
+                }
+                callbacks = pendingCallbacks.remove(key);
+            }
+            final Rows loaded = rows;
+            mainHandler.post(() -> {
+                for (FilesCallback pending : callbacks) {
+                    pending.onFilesLoaded(loaded != null ? new RowsCursor(loaded) : null);
+                }
+            });
+        });
+    }
+
+    private static Rows copy(Cursor cursor) {
+        String[] columnNames = cursor.getColumnNames();
+        Object[][] values = new Object[cursor.getCount()][];
+        int row = 0;
+        while (cursor.moveToNext() && row < values.length) {
+            Object[] rowValues = new Object[columnNames.length];
+            for (int column = 0; column < columnNames.length; column++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        rowValues[column] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        rowValues[column] = cursor.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        rowValues[column] = cursor.getString(column);
+                        break;
+                    default:
+                        // Listings have no blobs
+                        rowValues[column] = null;
+                }
+            }
+            values[row++] = rowValues;
+        }
+        return new Rows(columnNames, row < values.length ? Arrays.copyOf(values, row) : values);
+    }
+
+    /**
+     * Read-only cursor over cached rows, each caller gets its own position
+     */
+    private static class RowsCursor extends AbstractCursor {
+        private final Rows rows;
+
+        RowsCursor(Rows rows) {
+            this.rows = rows;
+        }
+
+        private Object get(int column) {
+            int position = getPosition();
+            if (position < 0 || position >= rows.values.length)
+                throw new CursorIndexOutOfBoundsException(position, rows.values.length);
+            return rows.values[position][column];
+        }
+
+        @Override
+        public int getCount() {
+            return rows.values.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return rows.columnNames;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null)
+                return FIELD_TYPE_NULL;
+            if (value instanceof Long)
+                return FIELD_TYPE_INTEGER;
+            if (value instanceof Double)
+                return FIELD_TYPE_FLOAT;
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value != null ? value.toString() : null;
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null)
+                return 0;
+            if (value instanceof Number)
+                return ((Number) value).longValue();
+            try {
+                return Long.parseLong(value.toString());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null)
+                return 0;
+            if (value instanceof Number)
+                return ((Number) value).doubleValue();
+            try {
+                return Double.parseDouble(value.toString());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
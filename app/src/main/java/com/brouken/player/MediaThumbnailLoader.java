@@ -0,0 +1,239 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.Size;
+import android.widget.ImageView;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads MediaStore thumbnails into ImageViews off the main thread for the media browser.
+ * Thumbnails are requested from MediaStore at the size they are shown, kept in a memory cache
+ * with a byte budget and written to a size-capped disk cache, which is much cheaper to read than
+ * asking MediaProvider again. A request is cancelled when its view is bound to another item.
+ * All methods must be called on the main thread.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+class MediaThumbnailLoader {
+    private static final String TAG = "MediaThumbnailLoader";
+
+    private static final int MAX_CACHE_BYTES = 24 * 1024 * 1024;
+    private static final int QUALITY = 80;
+    private static final long MAX_DISK_CACHE_BYTES = 64 * 1024 * 1024;
+
+    private static MediaThumbnailLoader instance;
+
+    private final ContentResolver contentResolver;
+    private final File cacheDir;
+    // Few threads, low-end devices generate thumbnails slowly and scrolling must stay smooth
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> cache;
+    private final Map<ImageView, Request> requests = new WeakHashMap<>();
+    // Size of the disk cache, counted on the first write of the process
+    private final Object diskLock = new Object();
+    private long diskBytes = -1;
+
+    private static class Request {
+        final String key;
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        Future<?> future;
+
+        Request(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Shared by all browser screens, so going back to a bucket shows its thumbnails right away
+     */
+    static MediaThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaThumbnailLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MediaThumbnailLoader(Context context) {
+        contentResolver = context.getContentResolver();
+        cacheDir = new File(context.getCacheDir(), "media_thumbnails");
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, MAX_CACHE_BYTES);
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of a MediaStore item in the view, with the placeholder until it is loaded
+     * @param dateModified modification time of the item, a changed file gets a new thumbnail
+     */
+    void load(Uri uri, long dateModified, int width, int height, ImageView view, int placeholderResId) {
+        final String key = uri.getLastPathSegment() + "_" + dateModified + "_" + width + "x" + height;
+        Request pending = requests.get(view);
+        if (pending != null && pending.key.equals(key))
+            return;
+        cancel(view);
+
+        Bitmap cached = cache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        view.setImageResource(placeholderResId);
+        final Request request = new Request(key);
+        requests.put(view, request);
+        request.future = executor.submit(() -> {
+            Bitmap bitmap = decode(uri, key, width, height, request.cancellationSignal);
+            mainHandler.post(() -> {
+                if (bitmap != null) {
+                    cache.put(key, bitmap);
+                }
+                // The view may have been bound to another item in the meantime
+                if (requests.get(view) != request)
+                    return;
+                requests.remove(view);
+                if (bitmap != null) {
+                    view.setImageBitmap(bitmap);
+                }
+            });
+        });
+    }
+
+    /**
+     * Stop loading into the view, e.g. when its item is recycled
+     */
+    void cancel(ImageView view) {
+        Request request = requests.remove(view);
+        if (request != null) {
+            request.cancellationSignal.cancel();
+            if (request.future != null) {
+                request.future.cancel(false);
+            }
+        }
+    }
+
+    private Bitmap decode(Uri uri, String key, int width, int height, CancellationSignal cancellationSignal) {
+        File cacheFile = new File(cacheDir, key + ".webp");
+        if (cacheFile.exists()) {
+            Bitmap bitmap = ThumbnailStore.decodeFile(cacheFile.getAbsolutePath(), width, height);
+            if (bitmap != null) {
+                // The modification time orders the files for trimming
+                cacheFile.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = contentResolver.loadThumbnail(uri, new Size(width, height), cancellationSignal);
+        } catch (IOException | OperationCanceledException e) {
+            return null;
+        }
+        store(cacheFile, bitmap);
+        return bitmap;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void store(File cacheFile, Bitmap bitmap) {
+        if (!cacheDir.exists()) {
+            cacheDir.mkdirs();
+        }
+        // Written under a temporary name so a partly written file is never read
+        File tempFile = new File(cacheDir, cacheFile.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            bitmap.compress(Build.VERSION.SDK_INT >= 30 ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP, QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Error caching thumbnail " + cacheFile.getName(), e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            tempFile.delete();
+            return;
+        }
+        trimDiskCache(cacheFile);
+    }
+
+    /**
+     * Remove other thumbnails of the same item, which belong to an older version of the file or
+     * another cell size, and the least recently used files once the cache is over its byte cap
+     */
+    private void trimDiskCache(File storedFile) {
+        // Names start with the MediaStore id
+        final String name = storedFile.getName();
+        final String itemPrefix = name.substring(0, name.indexOf('_') + 1);
+        synchronized (diskLock) {
+            if (diskBytes < 0) {
+                diskBytes = 0;
+                File[] files = cacheDir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        diskBytes += file.length();
+                    }
+                }
+            } else {
+                diskBytes += storedFile.length();
+            }
+
+            File[] staleFiles = cacheDir.listFiles((dir, fileName) -> fileName.startsWith(itemPrefix) && !fileName.equals(name)
+                    && !fileName.endsWith(".tmp"));
+            if (staleFiles != null) {
+                for (File file : staleFiles) {
+                    long length = file.length();
+                    if (file.delete()) {
+                        diskBytes -= length;
+                    }
+                }
+            }
+
+            if (diskBytes <= MAX_DISK_CACHE_BYTES)
+                return;
+            File[] files = cacheDir.listFiles();
+            if (files == null)
+                return;
+            // Read once, the comparator runs many times
+            final Map<File, Long> lastUsed = new HashMap<>();
+            for (File file : files) {
+                lastUsed.put(file, file.lastModified());
+            }
+            Arrays.sort(files, (a, b) -> Long.compare(lastUsed.get(a), lastUsed.get(b)));
+            // Trim below the cap so the next writes don't trim again right away
+            final long target = MAX_DISK_CACHE_BYTES * 3 / 4;
+            for (File file : files) {
+                if (diskBytes <= target)
+                    break;
+                if (file.equals(storedFile))
+                    continue;
+                long length = file.length();
+                if (file.delete()) {
+                    diskBytes -= length;
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package com.brouken.player;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -19,20 +22,30 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Manages network video links with persistent storage and metadata extraction
+ * Manages network video links with persistent storage and metadata extraction.
+ * Published links are never modified: writers copy a link, change the copy and replace the original
+ * under a single write lock, so readers on any thread always see complete links. Lookups by id or URL
+ * never block; sorted lists and searches briefly lock their index, which writers update as well.
  */
 public class NetworkLinkManager {
     private static final String TAG = "NetworkLinkManager";
@@ -40,26 +53,57 @@ public class NetworkLinkManager {
     private static final String KEY_LINKS = "links_json";
     private static final int THUMBNAIL_WIDTH = 320;
     private static final int THUMBNAIL_HEIGHT = 180;
+    // Links are revalidated once a day, due links are looked for every half hour
+    private static final long HEALTH_RECHECK_MS = TimeUnit.HOURS.toMillis(24);
+    private static final long HEALTH_ROUND_INTERVAL_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final long HEALTH_FIRST_ROUND_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final int HEALTH_CHECKS_PER_ROUND = 200;
     
     private final Context context;
     private final SharedPreferences prefs;
-    private final File thumbnailsDir;
+    private final NetworkLinkStore store;
+    private final ThumbnailStore thumbnailStore;
+    private ThumbnailLoader thumbnailLoader;
+    // Links whose JPEG thumbnail from older versions is being converted
+    private final Map<String, Boolean> legacyThumbnailConversions = new ConcurrentHashMap<>();
+    // Visible links whose thumbnail is being checked, so scrolling does not queue them again
+    private final Map<String, Boolean> thumbnailChecks = new ConcurrentHashMap<>();
     private final ExecutorService executorService;
-    private List<NetworkVideoLink> links;
+    // Single writer keeps row updates ordered and off the calling thread
+    private final ExecutorService storeExecutor;
+    // Serializes writers; readers go through the concurrent maps without locking
+    private final Object writeLock = new Object();
+    private final Map<String, NetworkVideoLink> linksById = new ConcurrentHashMap<>();
+    private final Map<String, NetworkVideoLink> linksByUrl = new ConcurrentHashMap<>();
+    private final LinkSearchIndex searchIndex = new LinkSearchIndex();
+    private final SortedLinkViews sortedViews = new SortedLinkViews();
+    private final ThumbnailExtractor thumbnailExtractor = new ThumbnailExtractor(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+    private final MediaProbe mediaProbe = new MediaProbe();
+    private final LinkHealthChecker healthChecker = new LinkHealthChecker();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<OnLinkChangedListener> linkChangedListeners = new CopyOnWriteArrayList<>();
+    
+    private final Runnable healthRound = new Runnable() {
+        @Override
+        public void run() {
+            checkDueLinks();
+            mainHandler.postDelayed(this, HEALTH_ROUND_INTERVAL_MS);
+        }
+    };
     
     public NetworkLinkManager(Context context) {
         this.context = context.getApplicationContext();
         this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        this.thumbnailsDir = new File(context.getCacheDir(), "video_thumbnails");
+        this.store = new NetworkLinkStore(this.context);
+        this.thumbnailStore = new ThumbnailStore(new File(context.getCacheDir(), "video_thumbnails"));
         this.executorService = Executors.newFixedThreadPool(3);
-        
-        // Create thumbnails directory
-        if (!thumbnailsDir.exists()) {
-            thumbnailsDir.mkdirs();
-        }
+        this.storeExecutor = Executors.newSingleThreadExecutor();
         
         // Load existing links
         loadLinks();
+        
+        // Stay out of the way of app startup before the first round
+        mainHandler.postDelayed(healthRound, HEALTH_FIRST_ROUND_DELAY_MS);
     }
     
     /**
@@ -70,18 +114,21 @@ public class NetworkLinkManager {
             return null;
         }
         
-        // Check if link already exists
-        for (NetworkVideoLink existingLink : links) {
-            if (existingLink.getUrl().equals(url)) {
+        NetworkVideoLink link;
+        synchronized (writeLock) {
+            // Check if link already exists
+            NetworkVideoLink existingLink = linksByUrl.get(normalizeUrl(url));
+            if (existingLink != null) {
                 return existingLink; // Return existing link
             }
+            
+            link = new NetworkVideoLink(url, customTitle);
+            indexLink(link);
+            
+            // Save changes
+            saveLink(link);
         }
-        
-        NetworkVideoLink link = new NetworkVideoLink(url, customTitle);
-        links.add(0, link); // Add at the beginning for recent-first ordering
-        
-        // Save changes
-        saveLinks();
+        notifyLinkChanged(link);
         
         // Extract metadata asynchronously
         extractMetadataAsync(link);
@@ -90,115 +137,198 @@ public class NetworkLinkManager {
     }
     
     /**
-     * Remove a network video link
+     * Add many links at once, e.g. from a playlist. Links already in the library are skipped,
+     * new ones are written in a single transaction and probed on the metadata pool.
      */
-    public boolean removeLink(String linkId) {
-        NetworkVideoLink linkToRemove = null;
-        for (NetworkVideoLink link : links) {
-            if (link.getId().equals(linkId)) {
-                linkToRemove = link;
-                break;
+    public ImportResult addLinks(List<PlaylistParser.Entry> entries) {
+        ImportResult result = new ImportResult();
+        List<NetworkVideoLink> addedLinks = new ArrayList<>();
+        List<ContentValues> rows = new ArrayList<>();
+        
+        synchronized (writeLock) {
+            for (PlaylistParser.Entry entry : entries) {
+                if (!Utils.isSupportedNetworkUri(Uri.parse(entry.url))) {
+                    result.invalid++;
+                    continue;
+                }
+                // Also catches duplicates within the same import since new links are indexed right away
+                if (linksByUrl.containsKey(normalizeUrl(entry.url))) {
+                    result.duplicates++;
+                    continue;
+                }
+                
+                NetworkVideoLink link = new NetworkVideoLink(entry.url, entry.title);
+                if (linksById.containsKey(link.getId())) {
+                    // Ids are derived from the URL hash and the current time, which can collide within a batch
+                    link.setId(link.getId() + "_" + addedLinks.size());
+                }
+                if (entry.durationMs > 0) {
+                    link.setDuration(entry.durationMs);
+                }
+                indexLink(link);
+                addedLinks.add(link);
+                rows.add(NetworkLinkStore.toValues(link));
             }
+            
+            if (!rows.isEmpty()) {
+                storeExecutor.execute(() -> {
+                    try {
+                        store.upsertAll(rows);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error saving imported links", e);
+                    }
+                });
+            }
+        }
+        if (!addedLinks.isEmpty()) {
+            notifyLinkChanged(null);
         }
         
-        if (linkToRemove != null) {
-            links.remove(linkToRemove);
-            
-            // Delete thumbnail if exists
-            if (linkToRemove.hasThumbnail()) {
-                new File(linkToRemove.getThumbnailPath()).delete();
+        // The metadata pool is bounded, so large imports are probed a few at a time
+        for (NetworkVideoLink link : addedLinks) {
+            extractMetadataAsync(link);
+        }
+        
+        result.added = addedLinks.size();
+        return result;
+    }
+    
+    /**
+     * Parse a playlist or URL list off the main thread and add its entries to the library
+     * @param source opens the playlist text; called on a background thread
+     * @param callback receives the result on the main thread
+     */
+    public void importPlaylistAsync(Callable<Reader> source, ImportCallback callback) {
+        executorService.submit(() -> {
+            ImportResult result;
+            try (Reader reader = source.call()) {
+                PlaylistParser.Result parsed = PlaylistParser.parse(reader);
+                if (parsed.streamManifest) {
+                    result = new ImportResult();
+                    result.streamManifest = true;
+                } else {
+                    result = addLinks(parsed.entries);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error reading playlist", e);
+                result = new ImportResult();
+                result.error = e;
             }
             
-            saveLinks();
-            return true;
+            final ImportResult importResult = result;
+            mainHandler.post(() -> callback.onImportFinished(importResult));
+        });
+    }
+    
+    /**
+     * Remove a network video link
+     */
+    public boolean removeLink(String linkId) {
+        NetworkVideoLink linkToRemove;
+        synchronized (writeLock) {
+            linkToRemove = linksById.remove(linkId);
+            if (linkToRemove == null) {
+                return false;
+            }
+            linksByUrl.remove(normalizeUrl(linkToRemove.getUrl()));
+            searchIndex.remove(linkId);
+            sortedViews.remove(linkId);
+            deleteLink(linkToRemove.getId());
         }
         
-        return false;
+        thumbnailStore.remove(linkId);
+        
+        notifyLinkChanged(linkToRemove);
+        return true;
     }
     
     /**
      * Update link title
      */
     public boolean updateLinkTitle(String linkId, String newTitle) {
-        for (NetworkVideoLink link : links) {
-            if (link.getId().equals(linkId)) {
-                link.setTitle(newTitle);
-                saveLinks();
-                return true;
-            }
-        }
-        return false;
+        return editLink(linkId, link -> link.setTitle(newTitle)) != null;
     }
     
     /**
      * Mark link as accessed (for usage tracking)
      */
     public void markLinkAccessed(String linkId) {
-        for (NetworkVideoLink link : links) {
-            if (link.getId().equals(linkId)) {
-                link.incrementAccessCount();
-                saveLinks();
-                break;
+        editLink(linkId, NetworkVideoLink::incrementAccessCount);
+    }
+    
+    /**
+     * Change a link on a copy and publish the copy in place of the current version
+     * @return the published link, or null if the link no longer exists
+     */
+    private NetworkVideoLink editLink(String linkId, LinkEditor editor) {
+        NetworkVideoLink link;
+        synchronized (writeLock) {
+            NetworkVideoLink current = linksById.get(linkId);
+            if (current == null) {
+                return null;
             }
+            link = new NetworkVideoLink(current);
+            editor.edit(link);
+            publishLink(current, link);
         }
+        notifyLinkChanged(link);
+        return link;
     }
     
     /**
-     * Get all network video links
+     * Replace a published link, call with writeLock held
+     */
+    private void publishLink(NetworkVideoLink current, NetworkVideoLink link) {
+        if (!current.getUrl().equals(link.getUrl())) {
+            linksByUrl.remove(normalizeUrl(current.getUrl()));
+        }
+        indexLink(link);
+        // Rows are queued in publish order, so the store always ends up with the latest version
+        saveLink(link);
+    }
+    
+    /**
+     * Get all network video links, most recently added first. The list is unmodifiable.
      */
     public List<NetworkVideoLink> getAllLinks() {
-        return new ArrayList<>(links);
+        return sortedViews.get(SortOrder.DATE_ADDED_DESC);
     }
     
     /**
-     * Get links sorted by different criteria
+     * Get links sorted by different criteria. The returned list is unmodifiable and shared
+     * until the next change, views are maintained incrementally.
      */
     public List<NetworkVideoLink> getLinksSorted(SortOrder sortOrder) {
-        List<NetworkVideoLink> sortedLinks = new ArrayList<>(links);
-        
-        switch (sortOrder) {
-            case DATE_ADDED_DESC:
-                Collections.sort(sortedLinks, (a, b) -> Long.compare(b.getDateAdded(), a.getDateAdded()));
-                break;
-            case DATE_ADDED_ASC:
-                Collections.sort(sortedLinks, (a, b) -> Long.compare(a.getDateAdded(), b.getDateAdded()));
-                break;
-            case TITLE_ASC:
-                Collections.sort(sortedLinks, (a, b) -> a.getDisplayTitle().compareToIgnoreCase(b.getDisplayTitle()));
-                break;
-            case TITLE_DESC:
-                Collections.sort(sortedLinks, (a, b) -> b.getDisplayTitle().compareToIgnoreCase(a.getDisplayTitle()));
-                break;
-            case MOST_ACCESSED:
-                Collections.sort(sortedLinks, (a, b) -> Integer.compare(b.getAccessCount(), a.getAccessCount()));
-                break;
-            case LAST_ACCESSED:
-                Collections.sort(sortedLinks, (a, b) -> Long.compare(b.getLastAccessed(), a.getLastAccessed()));
-                break;
-        }
-        
-        return sortedLinks;
+        return sortedViews.get(sortOrder);
     }
     
     /**
-     * Search links by title or URL
+     * Search links by title, hostname or description.
+     * Each query word matches by prefix, all words must match; best matches come first.
      */
     public List<NetworkVideoLink> searchLinks(String query) {
         if (TextUtils.isEmpty(query)) {
             return getAllLinks();
         }
         
-        List<NetworkVideoLink> results = new ArrayList<>();
-        String lowercaseQuery = query.toLowerCase();
+        final Map<String, Integer> scores = searchIndex.search(query);
+        if (scores == null) {
+            return getAllLinks();
+        }
         
-        for (NetworkVideoLink link : links) {
-            if (link.getDisplayTitle().toLowerCase().contains(lowercaseQuery) ||
-                link.getUrl().toLowerCase().contains(lowercaseQuery) ||
-                link.getDescription().toLowerCase().contains(lowercaseQuery)) {
+        List<NetworkVideoLink> results = new ArrayList<>(scores.size());
+        for (String linkId : scores.keySet()) {
+            NetworkVideoLink link = linksById.get(linkId);
+            if (link != null) {
                 results.add(link);
             }
         }
         
+        Collections.sort(results, (a, b) -> {
+            int result = Integer.compare(scores.get(b.getId()), scores.get(a.getId()));
+            return result != 0 ? result : Long.compare(b.getLastAccessed(), a.getLastAccessed());
+        });
+        
         return results;
     }
     
@@ -206,118 +336,292 @@ public class NetworkLinkManager {
      * Get link by ID
      */
     public NetworkVideoLink getLinkById(String linkId) {
-        for (NetworkVideoLink link : links) {
-            if (link.getId().equals(linkId)) {
-                return link;
-            }
-        }
-        return null;
+        return linksById.get(linkId);
+    }
+    
+    /**
+     * Get link by URL, ignoring differences that do not change the target (scheme/host case, fragment)
+     */
+    public NetworkVideoLink getLinkByUrl(String url) {
+        return linksByUrl.get(normalizeUrl(url));
     }
     
     /**
      * Clear all links
      */
     public void clearAllLinks() {
-        // Delete all thumbnails
-        File[] thumbnailFiles = thumbnailsDir.listFiles();
-        if (thumbnailFiles != null) {
-            for (File file : thumbnailFiles) {
-                file.delete();
-            }
+        thumbnailStore.clear();
+        if (thumbnailLoader != null) {
+            thumbnailLoader.clear();
         }
         
-        links.clear();
-        saveLinks();
+        synchronized (writeLock) {
+            linksById.clear();
+            linksByUrl.clear();
+            searchIndex.clear();
+            sortedViews.clear();
+            storeExecutor.execute(store::clear);
+        }
+        notifyLinkChanged(null);
     }
     
     /**
      * Get total number of links
      */
     public int getLinksCount() {
-        return links.size();
+        return linksById.size();
     }
     
     /**
      * Extract metadata from video URL asynchronously
      */
     private void extractMetadataAsync(NetworkVideoLink link) {
+        final String linkId = link.getId();
+        final String url = link.getUrl();
         executorService.submit(() -> {
             try {
-                extractVideoMetadata(link);
-                generateThumbnail(link);
-                saveLinks(); // Save updated metadata
+                // Probe without holding anything, then publish all fields at once
+                MediaProbe.Result result = probe(url);
+                NetworkVideoLink updatedLink = editLink(linkId, editedLink -> applyMetadata(editedLink, result));
+                if (updatedLink != null) {
+                    requestThumbnail(updatedLink);
+                }
             } catch (Exception e) {
-                Log.e(TAG, "Error extracting metadata for: " + link.getUrl(), e);
+                Log.e(TAG, "Error extracting metadata for: " + url, e);
             }
         });
     }
     
+    private MediaProbe.Result probe(String url) {
+        try {
+            return mediaProbe.probe(url);
+        } catch (Exception e) {
+            Log.w(TAG, "Error probing " + url, e);
+            return null;
+        }
+    }
+    
     /**
-     * Extract video metadata using ExoPlayer
+     * Apply probed container metadata, falling back to URL patterns
      */
-    private void extractVideoMetadata(NetworkVideoLink link) {
-        try {
-            // This is a simplified metadata extraction
-            // In a real implementation, you might use MediaMetadataRetriever or ExoPlayer
-            
-            // For now, we'll extract basic info from URL patterns
-            String url = link.getUrl().toLowerCase();
-            
-            // Detect common video formats
-            if (url.contains(".mp4")) {
-                link.setFormat("MP4");
-            } else if (url.contains(".mkv")) {
-                link.setFormat("MKV");
-            } else if (url.contains(".avi")) {
-                link.setFormat("AVI");
-            } else if (url.contains(".mov")) {
-                link.setFormat("MOV");
-            } else if (url.contains(".webm")) {
-                link.setFormat("WebM");
-            } else if (url.contains("m3u8")) {
-                link.setFormat("HLS");
-            } else if (url.contains("mpd")) {
-                link.setFormat("DASH");
-            } else {
-                link.setFormat("Stream");
+    private static void applyMetadata(NetworkVideoLink link, MediaProbe.Result result) {
+        link.setFormat(guessFormatFromUrl(link.getUrl()));
+        if (result == null) {
+            return;
+        }
+        if (result.container != null) {
+            link.setFormat(result.container);
+        }
+        if (result.durationMs > 0) {
+            link.setDuration(result.durationMs);
+        }
+        if (result.width > 0) {
+            link.setWidth(result.width);
+            link.setHeight(result.height);
+        }
+        link.setVideoCodec(result.videoCodec);
+        link.setAudioCodec(result.audioCodec);
+        link.setSize(result.sizeBytes);
+    }
+    
+    private static String guessFormatFromUrl(String url) {
+        String lowercaseUrl = url.toLowerCase();
+        if (lowercaseUrl.contains(".mp4")) {
+            return "MP4";
+        } else if (lowercaseUrl.contains(".mkv")) {
+            return "MKV";
+        } else if (lowercaseUrl.contains(".avi")) {
+            return "AVI";
+        } else if (lowercaseUrl.contains(".mov")) {
+            return "MOV";
+        } else if (lowercaseUrl.contains(".webm")) {
+            return "WebM";
+        } else if (lowercaseUrl.contains("m3u8")) {
+            return "HLS";
+        } else if (lowercaseUrl.contains("mpd")) {
+            return "DASH";
+        }
+        return "Stream";
+    }
+    
+    /**
+     * Queue extraction of a real video frame as thumbnail, falling back to a placeholder
+     */
+    private void requestThumbnail(NetworkVideoLink link) {
+        if (!ThumbnailExtractor.isSupported(link)) {
+            publishThumbnail(link, createPlaceholderThumbnail(link), -1);
+            return;
+        }
+        // Extraction would likely just wait for a timeout, try again when the row is shown after the backoff
+        String host = link.getHostname();
+        if (host != null && healthChecker.isBackedOff(host)) {
+            return;
+        }
+        
+        thumbnailExtractor.request(link, (extractedLink, frame, durationMs) ->
+                publishThumbnail(extractedLink, frame != null ? frame : createPlaceholderThumbnail(extractedLink), durationMs));
+    }
+    
+    private void publishThumbnail(NetworkVideoLink link, Bitmap thumbnail, long durationMs) {
+        final String thumbnailPath = saveThumbnail(link, thumbnail);
+        if (thumbnailPath == null) {
+            return;
+        }
+        // The store rewrites the same files, so cached bitmaps can't be told apart by path.
+        // Posted before the link change, rows rebound for it already use the new version.
+        mainHandler.post(() -> {
+            if (thumbnailLoader != null) {
+                thumbnailLoader.invalidate(link.getId());
             }
-            
-            // Extract title from common video hosting patterns
-            if (url.contains("youtube.com") || url.contains("youtu.be")) {
-                // YouTube URL detected
-                link.setTitle("YouTube Video");
-            } else if (url.contains("vimeo.com")) {
-                link.setTitle("Vimeo Video");
-            } else if (url.contains("dailymotion.com")) {
-                link.setTitle("Dailymotion Video");
+        });
+        NetworkVideoLink updatedLink = editLink(link.getId(), editedLink -> {
+            editedLink.setThumbnailPath(thumbnailPath);
+            if (durationMs > 0 && editedLink.getDuration() <= 0) {
+                editedLink.setDuration(durationMs);
             }
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error extracting metadata", e);
+        });
+        if (updatedLink == null) {
+            // Removed while the thumbnail was being extracted
+            thumbnailStore.remove(link.getId());
         }
     }
     
     /**
-     * Generate thumbnail for video (placeholder implementation)
+     * Move a JPEG thumbnail written by older versions into the thumbnail store
      */
-    private void generateThumbnail(NetworkVideoLink link) {
-        try {
-            // This is a placeholder implementation
-            // In a real scenario, you would use MediaMetadataRetriever or ExoPlayer to extract a frame
-            
-            // For now, we'll create a simple colored bitmap as placeholder
-            Bitmap placeholder = createPlaceholderThumbnail(link);
-            
-            String thumbnailFileName = "thumb_" + link.getId() + ".jpg";
-            File thumbnailFile = new File(thumbnailsDir, thumbnailFileName);
-            
-            try (FileOutputStream out = new FileOutputStream(thumbnailFile)) {
-                placeholder.compress(Bitmap.CompressFormat.JPEG, 80, out);
-                link.setThumbnailPath(thumbnailFile.getAbsolutePath());
+    private void convertLegacyThumbnail(NetworkVideoLink link) {
+        if (legacyThumbnailConversions.put(link.getId(), Boolean.TRUE) != null)
+            return;
+        executorService.submit(() -> {
+            try {
+                String legacyPath = link.getThumbnailPath();
+                Bitmap thumbnail = ThumbnailStore.decodeFile(legacyPath, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+                if (thumbnail != null) {
+                    publishThumbnail(link, thumbnail, -1);
+                    new File(legacyPath).delete();
+                } else {
+                    requestThumbnail(link);
+                }
+            } finally {
+                legacyThumbnailConversions.remove(link.getId());
             }
-            
+        });
+    }
+    
+    /**
+     * Loader for the thumbnails shown in library rows, main thread only
+     */
+    public ThumbnailLoader getThumbnailLoader() {
+        if (thumbnailLoader == null) {
+            thumbnailLoader = new ThumbnailLoader(thumbnailStore);
+        }
+        return thumbnailLoader;
+    }
+    
+    /**
+     * Decode the larger thumbnail, subsampled to roughly the given size
+     */
+    public Bitmap loadDetailThumbnail(NetworkVideoLink link, int width, int height) {
+        String path = link.getThumbnailPath();
+        return path != null ? ThumbnailStore.decodeFile(path, width, height) : null;
+    }
+    
+    /**
+     * Tell the manager which links are on screen so their thumbnails are extracted first.
+     * Visible links without a thumbnail (e.g. added by older versions) are queued too.
+     * Called from scroll listeners, so the thumbnail store and files are only checked in the background.
+     */
+    public void prioritizeThumbnails(Collection<String> visibleLinkIds) {
+        thumbnailExtractor.setVisibleLinks(visibleLinkIds);
+        final List<NetworkVideoLink> links = new ArrayList<>();
+        for (String linkId : visibleLinkIds) {
+            NetworkVideoLink link = linksById.get(linkId);
+            if (link != null && !thumbnailExtractor.isPending(linkId) && thumbnailChecks.put(linkId, Boolean.TRUE) == null) {
+                links.add(link);
+            }
+        }
+        if (links.isEmpty())
+            return;
+        executorService.submit(() -> {
+            for (NetworkVideoLink link : links) {
+                try {
+                    if (thumbnailStore.hasSmall(link.getId()))
+                        continue;
+                    if (link.hasThumbnail()) {
+                        convertLegacyThumbnail(link);
+                    } else {
+                        // Placeholders of streams are rendered and stored right here
+                        requestThumbnail(link);
+                    }
+                } finally {
+                    thumbnailChecks.remove(link.getId());
+                }
+            }
+        });
+    }
+    
+    /**
+     * Queue health checks for links that were never checked or not checked recently
+     */
+    private void checkDueLinks() {
+        final long now = System.currentTimeMillis();
+        int queued = 0;
+        for (NetworkVideoLink link : linksById.values()) {
+            if (now - link.getLastChecked() < HEALTH_RECHECK_MS)
+                continue;
+            if (healthChecker.check(link, this::onHealthChecked) && ++queued >= HEALTH_CHECKS_PER_ROUND)
+                break;
+        }
+    }
+    
+    /**
+     * Revalidate a single link now, e.g. after playback of it failed
+     */
+    public void checkLinkHealth(String linkId) {
+        NetworkVideoLink link = linksById.get(linkId);
+        if (link != null) {
+            healthChecker.check(link, this::onHealthChecked);
+        }
+    }
+    
+    private void onHealthChecked(String linkId, LinkHealthChecker.Result result) {
+        editLink(linkId, link -> {
+            link.setHttpStatus(result.status);
+            link.setLatencyMs(result.latencyMs);
+            link.setEtag(result.etag);
+            link.setServerLastModified(result.lastModified);
+            link.setLastChecked(result.checkedAt);
+        });
+    }
+    
+    public void addOnLinkChangedListener(OnLinkChangedListener listener) {
+        linkChangedListeners.add(listener);
+    }
+    
+    public void removeOnLinkChangedListener(OnLinkChangedListener listener) {
+        linkChangedListeners.remove(listener);
+    }
+    
+    private void notifyLinkChanged(NetworkVideoLink link) {
+        mainHandler.post(() -> {
+            for (OnLinkChangedListener listener : linkChangedListeners) {
+                listener.onLinkChanged(link);
+            }
+        });
+    }
+    
+    /**
+     * Write thumbnail bitmap in list and detail sizes
+     * @return path of the detail thumbnail or null on failure
+     */
+    private String saveThumbnail(NetworkVideoLink link, Bitmap thumbnail) {
+        try {
+            return thumbnailStore.put(link.getId(), thumbnail);
         } catch (Exception e) {
             Log.e(TAG, "Error generating thumbnail", e);
+            return null;
+        } finally {
+            thumbnail.recycle();
         }
     }
     
@@ -325,7 +629,7 @@ public class NetworkLinkManager {
      * Create a placeholder thumbnail
      */
     private Bitmap createPlaceholderThumbnail(NetworkVideoLink link) {
-        Bitmap bitmap = Bitmap.createBitmap(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, Bitmap.Config.ARGB_8888);
+        Bitmap bitmap = Bitmap.createBitmap(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, Bitmap.Config.RGB_565);
         
         // Create a simple colored background based on the link's hash
         int color = 0xFF000000 | (link.getUrl().hashCode() & 0x00FFFFFF);
@@ -335,75 +639,117 @@ public class NetworkLinkManager {
     }
     
     /**
-     * Load links from SharedPreferences
+     * Load links from the database, migrating the legacy JSON blob on first run
      */
     private void loadLinks() {
-        links = new ArrayList<>();
+        if (prefs.contains(KEY_LINKS)) {
+            migrateJsonLinks();
+        }
+        
+        try {
+            List<NetworkVideoLink> storedLinks = store.loadAll();
+            synchronized (writeLock) {
+                for (NetworkVideoLink link : storedLinks) {
+                    indexLink(link);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading links", e);
+        }
+    }
+    
+    /**
+     * Make a link visible to readers, call with writeLock held
+     */
+    private void indexLink(NetworkVideoLink link) {
+        linksById.put(link.getId(), link);
+        linksByUrl.put(normalizeUrl(link.getUrl()), link);
+        searchIndex.add(link);
+        sortedViews.put(link);
+    }
+    
+    /**
+     * Normalize URL for duplicate detection: lower-case scheme and host, no fragment, no bare trailing slash
+     */
+    static String normalizeUrl(String url) {
+        String trimmed = url.trim();
+        Uri uri = Uri.parse(trimmed);
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (scheme == null || host == null) {
+            return trimmed;
+        }
         
+        StringBuilder normalized = new StringBuilder(trimmed.length());
+        normalized.append(scheme.toLowerCase(Locale.ROOT)).append("://");
+        String userInfo = uri.getEncodedUserInfo();
+        if (userInfo != null) {
+            normalized.append(userInfo).append('@');
+        }
+        normalized.append(host.toLowerCase(Locale.ROOT));
+        if (uri.getPort() != -1) {
+            normalized.append(':').append(uri.getPort());
+        }
+        String path = uri.getEncodedPath();
+        if (path != null && !path.equals("/")) {
+            normalized.append(path);
+        }
+        String query = uri.getEncodedQuery();
+        if (query != null) {
+            normalized.append('?').append(query);
+        }
+        return normalized.toString();
+    }
+    
+    /**
+     * One-time migration of links stored as a single JSON string in SharedPreferences
+     */
+    private void migrateJsonLinks() {
         try {
             String jsonString = prefs.getString(KEY_LINKS, "[]");
             JSONArray jsonArray = new JSONArray(jsonString);
+            List<ContentValues> rows = new ArrayList<>(jsonArray.length());
             
             for (int i = 0; i < jsonArray.length(); i++) {
                 JSONObject jsonLink = jsonArray.getJSONObject(i);
                 NetworkVideoLink link = linkFromJson(jsonLink);
                 if (link != null) {
-                    links.add(link);
+                    rows.add(NetworkLinkStore.toValues(link));
                 }
             }
             
-        } catch (JSONException e) {
-            Log.e(TAG, "Error loading links", e);
-            links = new ArrayList<>();
+            store.upsertAll(rows);
+            prefs.edit().remove(KEY_LINKS).commit();
+        } catch (Exception e) {
+            Log.e(TAG, "Error migrating links", e);
         }
     }
     
     /**
-     * Save links to SharedPreferences
+     * Persist a single link row
      */
-    private void saveLinks() {
-        try {
-            JSONArray jsonArray = new JSONArray();
-            
-            for (NetworkVideoLink link : links) {
-                JSONObject jsonLink = linkToJson(link);
-                if (jsonLink != null) {
-                    jsonArray.put(jsonLink);
-                }
+    private void saveLink(NetworkVideoLink link) {
+        final ContentValues values = NetworkLinkStore.toValues(link);
+        storeExecutor.execute(() -> {
+            try {
+                store.upsert(values);
+            } catch (Exception e) {
+                Log.e(TAG, "Error saving link", e);
             }
-            
-            prefs.edit()
-                    .putString(KEY_LINKS, jsonArray.toString())
-                    .apply();
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error saving links", e);
-        }
+        });
     }
     
     /**
-     * Convert NetworkVideoLink to JSON
+     * Delete a single link row
      */
-    private JSONObject linkToJson(NetworkVideoLink link) {
-        try {
-            JSONObject json = new JSONObject();
-            json.put("id", link.getId());
-            json.put("url", link.getUrl());
-            json.put("title", link.getTitle());
-            json.put("description", link.getDescription());
-            json.put("duration", link.getDuration());
-            json.put("format", link.getFormat());
-            json.put("thumbnailPath", link.getThumbnailPath());
-            json.put("dateAdded", link.getDateAdded());
-            json.put("lastAccessed", link.getLastAccessed());
-            json.put("accessCount", link.getAccessCount());
-            json.put("isValidUrl", link.isValidUrl());
-            
-            return json;
-        } catch (JSONException e) {
-            Log.e(TAG, "Error converting link to JSON", e);
-            return null;
-        }
+    private void deleteLink(String linkId) {
+        storeExecutor.execute(() -> {
+            try {
+                store.delete(linkId);
+            } catch (Exception e) {
+                Log.e(TAG, "Error deleting link", e);
+            }
+        });
     }
     
     /**
@@ -414,7 +760,7 @@ public class NetworkLinkManager {
             String url = json.getString("url");
             NetworkVideoLink link = new NetworkVideoLink(url);
             
-            if (json.has("id")) link.setTitle(json.optString("id", link.getId()));
+            if (json.has("id")) link.setId(json.optString("id", link.getId()));
             if (json.has("title")) link.setTitle(json.optString("title", link.getTitle()));
             if (json.has("description")) link.setDescription(json.optString("description"));
             if (json.has("duration")) link.setDuration(json.optLong("duration", -1));
@@ -439,23 +785,59 @@ public class NetworkLinkManager {
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();
         }
+        thumbnailExtractor.shutdown();
+        healthChecker.shutdown();
+        mainHandler.removeCallbacks(healthRound);
+        // Let pending row writes finish before closing the database
+        storeExecutor.execute(() -> store.close());
+        storeExecutor.shutdown();
     }
     
     /**
-     * Update an existing network video link
+     * Update an existing network video link. A copy of the given link is published,
+     * so the caller's object stays private to the caller.
      */
     public boolean updateLink(NetworkVideoLink updatedLink) {
-        for (int i = 0; i < links.size(); i++) {
-            NetworkVideoLink existingLink = links.get(i);
-            if (existingLink.getId().equals(updatedLink.getId())) {
-                links.set(i, updatedLink);
-                saveLinks();
-                return true;
+        NetworkVideoLink link = new NetworkVideoLink(updatedLink);
+        synchronized (writeLock) {
+            NetworkVideoLink existingLink = linksById.get(link.getId());
+            if (existingLink == null) {
+                return false;
             }
+            publishLink(existingLink, link);
         }
-        return false;
+        notifyLinkChanged(link);
+        return true;
+    }
+    
+    private interface LinkEditor {
+        void edit(NetworkVideoLink link);
     }
 
+    public interface OnLinkChangedListener {
+        /**
+         * Called on the main thread after a link was added, changed or removed
+         * @param link new version of the link, the removed link, or null if many links changed at once
+         */
+        void onLinkChanged(NetworkVideoLink link);
+    }
+    
+    public interface ImportCallback {
+        void onImportFinished(ImportResult result);
+    }
+    
+    /**
+     * Outcome of a bulk import
+     */
+    public static class ImportResult {
+        public int added;
+        public int duplicates;
+        public int invalid;
+        // The file was a single HLS stream rather than a list of videos
+        public boolean streamManifest;
+        public Exception error;
+    }
+    
     /**
      * Sort order options for links
      */
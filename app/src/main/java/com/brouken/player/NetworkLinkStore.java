@@ -0,0 +1,201 @@
+package com.brouken.player;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite backed storage for network video links, one row per link
+ */
+class NetworkLinkStore extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "network_links.db";
+    private static final int DATABASE_VERSION = 3;
+
+    static final String TABLE_LINKS = "links";
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_URL = "url";
+    static final String COLUMN_TITLE = "title";
+    static final String COLUMN_DESCRIPTION = "description";
+    static final String COLUMN_DURATION = "duration";
+    static final String COLUMN_FORMAT = "format";
+    static final String COLUMN_THUMBNAIL_PATH = "thumbnail_path";
+    static final String COLUMN_DATE_ADDED = "date_added";
+    static final String COLUMN_LAST_ACCESSED = "last_accessed";
+    static final String COLUMN_ACCESS_COUNT = "access_count";
+    static final String COLUMN_VALID_URL = "valid_url";
+    static final String COLUMN_WIDTH = "width";
+    static final String COLUMN_HEIGHT = "height";
+    static final String COLUMN_VIDEO_CODEC = "video_codec";
+    static final String COLUMN_AUDIO_CODEC = "audio_codec";
+    static final String COLUMN_SIZE = "size";
+    static final String COLUMN_ETAG = "etag";
+    static final String COLUMN_SERVER_LAST_MODIFIED = "server_last_modified";
+    static final String COLUMN_HTTP_STATUS = "http_status";
+    static final String COLUMN_LATENCY = "latency_ms";
+    static final String COLUMN_LAST_CHECKED = "last_checked";
+
+    NetworkLinkStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_LINKS + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_URL + " TEXT NOT NULL, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_DESCRIPTION + " TEXT, "
+                + COLUMN_DURATION + " INTEGER NOT NULL DEFAULT -1, "
+                + COLUMN_FORMAT + " TEXT, "
+                + COLUMN_THUMBNAIL_PATH + " TEXT, "
+                + COLUMN_DATE_ADDED + " INTEGER NOT NULL, "
+                + COLUMN_LAST_ACCESSED + " INTEGER NOT NULL, "
+                + COLUMN_ACCESS_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_VALID_URL + " INTEGER NOT NULL DEFAULT 1)");
+        addProbeColumns(db);
+        addHealthColumns(db);
+        createIndex(db, COLUMN_URL);
+        createIndex(db, COLUMN_DATE_ADDED);
+        createIndex(db, COLUMN_LAST_ACCESSED);
+        createIndex(db, COLUMN_ACCESS_COUNT);
+    }
+
+    private static void createIndex(SQLiteDatabase db, String column) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_" + TABLE_LINKS + "_" + column + " ON " + TABLE_LINKS + " (" + column + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            addProbeColumns(db);
+        }
+        if (oldVersion < 3) {
+            addHealthColumns(db);
+        }
+    }
+
+    // Version 2: container metadata from MediaProbe
+    private static void addProbeColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_WIDTH + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_HEIGHT + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_VIDEO_CODEC + " TEXT");
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_AUDIO_CODEC + " TEXT");
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_SIZE + " INTEGER NOT NULL DEFAULT -1");
+    }
+
+    // Version 3: results of LinkHealthChecker
+    private static void addHealthColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_ETAG + " TEXT");
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_SERVER_LAST_MODIFIED + " TEXT");
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_HTTP_STATUS + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_LATENCY + " INTEGER NOT NULL DEFAULT -1");
+        db.execSQL("ALTER TABLE " + TABLE_LINKS + " ADD COLUMN " + COLUMN_LAST_CHECKED + " INTEGER NOT NULL DEFAULT 0");
+    }
+
+    /**
+     * Load all links, most recently added first
+     */
+    List<NetworkVideoLink> loadAll() {
+        List<NetworkVideoLink> links = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_LINKS, null, null, null, null, null,
+                COLUMN_DATE_ADDED + " DESC")) {
+            while (cursor.moveToNext()) {
+                links.add(fromCursor(cursor));
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Insert or replace a single row
+     */
+    void upsert(ContentValues values) {
+        getWritableDatabase().insertWithOnConflict(TABLE_LINKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Insert or replace many rows in one transaction
+     */
+    void upsertAll(List<ContentValues> valuesList) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (ContentValues values : valuesList) {
+                db.insertWithOnConflict(TABLE_LINKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    void delete(String linkId) {
+        getWritableDatabase().delete(TABLE_LINKS, COLUMN_ID + "=?", new String[] { linkId });
+    }
+
+    void clear() {
+        getWritableDatabase().delete(TABLE_LINKS, null, null);
+    }
+
+    /**
+     * Capture the current state of a link as a row. Call on the thread that owns the link.
+     */
+    static ContentValues toValues(NetworkVideoLink link) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, link.getId());
+        values.put(COLUMN_URL, link.getUrl());
+        values.put(COLUMN_TITLE, link.getTitle());
+        values.put(COLUMN_DESCRIPTION, link.getDescription());
+        values.put(COLUMN_DURATION, link.getDuration());
+        values.put(COLUMN_FORMAT, link.getFormat());
+        values.put(COLUMN_THUMBNAIL_PATH, link.getThumbnailPath());
+        values.put(COLUMN_DATE_ADDED, link.getDateAdded());
+        values.put(COLUMN_LAST_ACCESSED, link.getLastAccessed());
+        values.put(COLUMN_ACCESS_COUNT, link.getAccessCount());
+        values.put(COLUMN_VALID_URL, link.isValidUrl() ? 1 : 0);
+        values.put(COLUMN_WIDTH, link.getWidth());
+        values.put(COLUMN_HEIGHT, link.getHeight());
+        values.put(COLUMN_VIDEO_CODEC, link.getVideoCodec());
+        values.put(COLUMN_AUDIO_CODEC, link.getAudioCodec());
+        values.put(COLUMN_SIZE, link.getSize());
+        values.put(COLUMN_ETAG, link.getEtag());
+        values.put(COLUMN_SERVER_LAST_MODIFIED, link.getServerLastModified());
+        values.put(COLUMN_HTTP_STATUS, link.getHttpStatus());
+        values.put(COLUMN_LATENCY, link.getLatencyMs());
+        values.put(COLUMN_LAST_CHECKED, link.getLastChecked());
+        return values;
+    }
+
+    private static NetworkVideoLink fromCursor(Cursor cursor) {
+        NetworkVideoLink link = new NetworkVideoLink(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_URL)));
+        link.setId(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ID)));
+        link.setTitle(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TITLE)));
+        String description = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DESCRIPTION));
+        link.setDescription(description != null ? description : "");
+        link.setDuration(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_DURATION)));
+        String format = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_FORMAT));
+        link.setFormat(format != null ? format : "");
+        link.setThumbnailPath(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_THUMBNAIL_PATH)));
+        link.setDateAdded(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_DATE_ADDED)));
+        link.setLastAccessed(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_LAST_ACCESSED)));
+        link.setAccessCount(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ACCESS_COUNT)));
+        link.setValidUrl(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_VALID_URL)) != 0);
+        link.setWidth(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_WIDTH)));
+        link.setHeight(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_HEIGHT)));
+        link.setVideoCodec(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_VIDEO_CODEC)));
+        link.setAudioCodec(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AUDIO_CODEC)));
+        link.setSize(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_SIZE)));
+        link.setEtag(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ETAG)));
+        link.setServerLastModified(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SERVER_LAST_MODIFIED)));
+        link.setHttpStatus(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_HTTP_STATUS)));
+        link.setLatencyMs(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_LATENCY)));
+        link.setLastChecked(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_LAST_CHECKED)));
+        return link;
+    }
+}
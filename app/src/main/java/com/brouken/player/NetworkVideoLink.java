@@ -11,6 +11,10 @@ import java.util.Objects;
  * Represents a network video link with metadata for the library
  */
 public class NetworkVideoLink {
+    public static final int HEALTH_UNKNOWN = 0;
+    public static final int HEALTH_OK = 1;
+    public static final int HEALTH_BROKEN = 2;
+    
     private String id;
     private String url;
     private String title;
@@ -22,6 +26,16 @@ public class NetworkVideoLink {
     private long lastAccessed;
     private int accessCount;
     private boolean isValidUrl;
+    private int width;
+    private int height;
+    private String videoCodec;
+    private String audioCodec;
+    private long size; // in bytes, -1 if unknown
+    private String etag;
+    private String serverLastModified; // Last-Modified header as sent by the server
+    private int httpStatus; // of the last health check, 0 if not checked, -1 if unreachable
+    private long latencyMs;
+    private long lastChecked;
     
     public NetworkVideoLink(String url) {
         this.id = generateId(url);
@@ -35,6 +49,8 @@ public class NetworkVideoLink {
         this.lastAccessed = this.dateAdded;
         this.accessCount = 0;
         this.isValidUrl = Utils.isSupportedNetworkUri(Uri.parse(url));
+        this.size = -1;
+        this.latencyMs = -1;
     }
     
     public NetworkVideoLink(String url, String title) {
@@ -44,6 +60,34 @@ public class NetworkVideoLink {
         }
     }
     
+    /**
+     * Copy of another link. Links published by {@link NetworkLinkManager} are never modified,
+     * changes are made on a copy which then replaces the original.
+     */
+    public NetworkVideoLink(NetworkVideoLink other) {
+        this.id = other.id;
+        this.url = other.url;
+        this.title = other.title;
+        this.description = other.description;
+        this.duration = other.duration;
+        this.format = other.format;
+        this.thumbnailPath = other.thumbnailPath;
+        this.dateAdded = other.dateAdded;
+        this.lastAccessed = other.lastAccessed;
+        this.accessCount = other.accessCount;
+        this.isValidUrl = other.isValidUrl;
+        this.width = other.width;
+        this.height = other.height;
+        this.videoCodec = other.videoCodec;
+        this.audioCodec = other.audioCodec;
+        this.size = other.size;
+        this.etag = other.etag;
+        this.serverLastModified = other.serverLastModified;
+        this.httpStatus = other.httpStatus;
+        this.latencyMs = other.latencyMs;
+        this.lastChecked = other.lastChecked;
+    }
+    
     // Generate a unique ID based on the URL
     private String generateId(String url) {
         return "link_" + Math.abs(url.hashCode()) + "_" + System.currentTimeMillis();
@@ -78,6 +122,10 @@ public class NetworkVideoLink {
         return id;
     }
     
+    public void setId(String id) {
+        this.id = id;
+    }
+    
     public String getUrl() {
         return url;
     }
@@ -168,6 +216,99 @@ public class NetworkVideoLink {
         isValidUrl = validUrl;
     }
     
+    public int getWidth() {
+        return width;
+    }
+    
+    public void setWidth(int width) {
+        this.width = width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public void setHeight(int height) {
+        this.height = height;
+    }
+    
+    public String getVideoCodec() {
+        return videoCodec;
+    }
+    
+    public void setVideoCodec(String videoCodec) {
+        this.videoCodec = videoCodec;
+    }
+    
+    public String getAudioCodec() {
+        return audioCodec;
+    }
+    
+    public void setAudioCodec(String audioCodec) {
+        this.audioCodec = audioCodec;
+    }
+    
+    public long getSize() {
+        return size;
+    }
+    
+    public void setSize(long size) {
+        this.size = size;
+    }
+    
+    public String getEtag() {
+        return etag;
+    }
+    
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+    
+    public String getServerLastModified() {
+        return serverLastModified;
+    }
+    
+    public void setServerLastModified(String serverLastModified) {
+        this.serverLastModified = serverLastModified;
+    }
+    
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+    
+    public void setHttpStatus(int httpStatus) {
+        this.httpStatus = httpStatus;
+    }
+    
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+    
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+    
+    public long getLastChecked() {
+        return lastChecked;
+    }
+    
+    public void setLastChecked(long lastChecked) {
+        this.lastChecked = lastChecked;
+    }
+    
+    /**
+     * Reachability according to the last health check
+     */
+    public int getHealth() {
+        if (!isValidUrl) {
+            return HEALTH_BROKEN;
+        }
+        if (httpStatus == 0) {
+            return HEALTH_UNKNOWN;
+        }
+        return httpStatus >= 200 && httpStatus < 400 ? HEALTH_OK : HEALTH_BROKEN;
+    }
+    
     // Display helpers
     public String getDisplayTitle() {
         return TextUtils.isEmpty(title) ? "Network Video" : title;
@@ -189,6 +330,20 @@ public class NetworkVideoLink {
         }
     }
     
+    public String getResolutionString() {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        return width + "×" + height;
+    }
+    
+    public String getCodecsString() {
+        if (TextUtils.isEmpty(videoCodec)) {
+            return audioCodec;
+        }
+        return TextUtils.isEmpty(audioCodec) ? videoCodec : videoCodec + "/" + audioCodec;
+    }
+    
     public String getHostname() {
         try {
             Uri uri = Uri.parse(url);
@@ -32,6 +32,8 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
 import android.provider.Settings;
 import android.text.TextUtils;
@@ -58,7 +60,6 @@ import android.widget.FrameLayout;
 import android.widget.HorizontalScrollView;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
-import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -136,6 +137,7 @@ public class PlayerActivity extends Activity {
 
     public Prefs mPrefs;
     public BrightnessControl mBrightnessControl;
+    private PositionCheckpointer positionCheckpointer;
     // Network Link Manager for persistent storage of network video URLs
     private NetworkLinkManager networkLinkManager;
     public static boolean haveMedia;
@@ -154,6 +156,8 @@ public class PlayerActivity extends Activity {
     private static final int REQUEST_CHOOSER_SCOPE_DIR = 10;
     private static final int REQUEST_CHOOSER_VIDEO_MEDIASTORE = 20;
     private static final int REQUEST_CHOOSER_SUBTITLE_MEDIASTORE = 21;
+    private static final int REQUEST_CHOOSER_PLAYLIST = 30;
+    private static final int REQUEST_CHOOSER_LIBRARY_IMPORT = 31;
     private static final int REQUEST_SETTINGS = 100;
     private static final int REQUEST_SYSTEM_CAPTIONS = 200;
     public static final int CONTROLLER_TIMEOUT = 3500;
@@ -230,7 +234,8 @@ public class PlayerActivity extends Activity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         // Rotate ASAP, before super/inflating to avoid glitches with activity launch animation
-        mPrefs = new Prefs(this);
+        mPrefs = StoreBootstrap.takePrefs(this);
+        positionCheckpointer = new PositionCheckpointer(mPrefs);
         Utils.setOrientation(this, mPrefs.orientation);
 
         super.onCreate(savedInstanceState);
@@ -742,6 +747,10 @@ public class PlayerActivity extends Activity {
                 Utils.scanMediaStorage(this);
             }
         }
+
+        if (BuildConfig.DEBUG && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            Utils.log("onCreate finished " + (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()) + " ms after process start");
+        }
     }
 
     @Override
@@ -1107,7 +1116,11 @@ public class PlayerActivity extends Activity {
             e.printStackTrace();
         }
 
-        if (resultCode == RESULT_OK && alive) {
+        // Importing into the library does not affect playback
+        final boolean restartPlayer = resultCode == RESULT_OK && alive
+                && requestCode != REQUEST_CHOOSER_PLAYLIST && requestCode != REQUEST_CHOOSER_LIBRARY_IMPORT;
+
+        if (restartPlayer) {
             releasePlayer();
         }
 
@@ -1179,6 +1192,22 @@ public class PlayerActivity extends Activity {
                     e.printStackTrace();
                 }
             }
+        } else if (requestCode == REQUEST_CHOOSER_PLAYLIST) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                importPlaylist(data.getData());
+            }
+        } else if (requestCode == REQUEST_CHOOSER_LIBRARY_IMPORT) {
+            if (resultCode == RESULT_OK && data != null) {
+                final List<Uri> uris = new ArrayList<>();
+                if (data.getClipData() != null) {
+                    for (int i = 0; i < data.getClipData().getItemCount(); i++) {
+                        uris.add(data.getClipData().getItemAt(i).getUri());
+                    }
+                } else if (data.getData() != null) {
+                    uris.add(data.getData());
+                }
+                importToLibrary(uris);
+            }
         } else if (requestCode == REQUEST_SETTINGS) {
             mPrefs.loadUserPreferences();
             updateSubtitleStyle(this);
@@ -1188,7 +1217,7 @@ public class PlayerActivity extends Activity {
 
         // Init here because onStart won't follow when app was only paused when file chooser was shown
         // (for example pop-up file chooser on tablets)
-        if (resultCode == RESULT_OK && alive) {
+        if (restartPlayer) {
             initializePlayer();
         }
     }
@@ -1203,6 +1232,7 @@ public class PlayerActivity extends Activity {
     public void initializePlayer() {
         boolean isNetworkUri = Utils.isSupportedNetworkUri(mPrefs.mediaUri);
         haveMedia = mPrefs.mediaUri != null;
+        positionCheckpointer.reset();
 
         if (player != null) {
             player.removeListener(playerListener);
@@ -1347,6 +1377,12 @@ public class PlayerActivity extends Activity {
             }
             player.setMediaItem(mediaItemBuilder.build(), mPrefs.getPosition());
 
+            if (ContentResolver.SCHEME_FILE.equals(mPrefs.mediaUri.getScheme())) {
+                // Recently played files are the last to be removed when the library is over quota,
+                // this covers every way playback starts, e.g. resuming the last file
+                new LibraryManager(this).markPlayed(mPrefs.mediaUri);
+            }
+
             try {
                 if (loudnessEnhancer != null) {
                     loudnessEnhancer.release();
@@ -1436,6 +1472,8 @@ public class PlayerActivity extends Activity {
             savePlayer();
         }
 
+        positionCheckpointer.stop();
+
         if (player != null) {
             notifyAudioSessionUpdate(false);
 
@@ -1474,6 +1512,13 @@ public class PlayerActivity extends Activity {
         public void onIsPlayingChanged(boolean isPlaying) {
             playerView.setKeepScreenOn(isPlaying);
 
+            if (isPlaying) {
+                positionCheckpointer.start();
+            } else {
+                positionCheckpointer.stop();
+                positionCheckpointer.checkpoint(true);
+            }
+
             if (Utils.isPiPSupported(PlayerActivity.this)) {
                 if (isPlaying) {
                     updatePictureInPictureActions(R.drawable.ic_pause_24dp, R.string.exo_controls_pause_description, CONTROL_TYPE_PAUSE, REQUEST_PAUSE);
@@ -1638,12 +1683,26 @@ public class PlayerActivity extends Activity {
             }
         }
 
+        @Override
+        public void onPositionDiscontinuity(@NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, int reason) {
+            if (reason == Player.DISCONTINUITY_REASON_SEEK && !isScrubbing) {
+                positionCheckpointer.checkpoint(true);
+            }
+        }
+
         @Override
         public void onPlayerError(PlaybackException error) {
             updateLoading(false);
             if (error instanceof ExoPlaybackException) {
                 final ExoPlaybackException exoPlaybackException = (ExoPlaybackException) error;
                 if (exoPlaybackException.type == ExoPlaybackException.TYPE_SOURCE) {
+                    // Let the library reflect a dead link without waiting for the next scheduled check
+                    if (Utils.isSupportedNetworkUri(mPrefs.mediaUri)) {
+                        NetworkVideoLink link = getNetworkLinkManager().getLinkByUrl(mPrefs.mediaUri.toString());
+                        if (link != null) {
+                            getNetworkLinkManager().checkLinkHealth(link.getId());
+                        }
+                    }
                     releasePlayer(false);
                     return;
                 }
@@ -2294,6 +2353,21 @@ public class PlayerActivity extends Activity {
         titleEditText.setLayoutParams(titleParams);
         layout.addView(titleEditText);
         
+        // Bulk import of M3U/M3U8 playlists or plain URL lists
+        final android.widget.Button playlistButton = new android.widget.Button(this);
+        playlistButton.setText("Import playlist file");
+        android.widget.LinearLayout.LayoutParams playlistParams = new android.widget.LinearLayout.LayoutParams(
+            android.widget.LinearLayout.LayoutParams.MATCH_PARENT,
+            android.widget.LinearLayout.LayoutParams.WRAP_CONTENT
+        );
+        playlistParams.setMargins(0, 20, 0, 0);
+        playlistButton.setLayoutParams(playlistParams);
+        layout.addView(playlistButton);
+        
+        final android.widget.Button clipboardButton = new android.widget.Button(this);
+        clipboardButton.setText("Import list from clipboard");
+        layout.addView(clipboardButton);
+        
         builder.setView(layout);
         
         builder.setPositiveButton("Add & Play", (dialog, which) -> {
@@ -2339,47 +2413,130 @@ public class PlayerActivity extends Activity {
         builder.setNegativeButton(android.R.string.cancel, (dialog, which) -> {});
         
         final AlertDialog dialog = builder.create();
+        
+        playlistButton.setOnClickListener(view -> {
+            dialog.dismiss();
+            enableRotation();
+            final Intent intent = createBaseFileIntent(Intent.ACTION_OPEN_DOCUMENT, null);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            final String[] supportedMimeTypes = {
+                    "audio/x-mpegurl",
+                    "audio/mpegurl",
+                    "application/x-mpegurl",
+                    "application/vnd.apple.mpegurl",
+                    "text/*",
+                    "application/octet-stream"
+            };
+            intent.putExtra(Intent.EXTRA_MIME_TYPES, supportedMimeTypes);
+            safelyStartActivityForResult(intent, REQUEST_CHOOSER_PLAYLIST);
+        });
+        
+        clipboardButton.setOnClickListener(view -> {
+            android.content.ClipboardManager clipboard =
+                (android.content.ClipboardManager) getSystemService(Context.CLIPBOARD_SERVICE);
+            android.content.ClipData clip = clipboard != null ? clipboard.getPrimaryClip() : null;
+            if (clip == null || clip.getItemCount() == 0) {
+                Toast.makeText(this, "Clipboard is empty", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            final String text = clip.getItemAt(0).coerceToText(this).toString();
+            dialog.dismiss();
+            getNetworkLinkManager().importPlaylistAsync(() -> new java.io.StringReader(text), this::showImportResult);
+        });
+        
         dialog.show();
     }
+    
+    private void importPlaylist(final Uri uri) {
+        final ContentResolver contentResolver = getContentResolver();
+        getNetworkLinkManager().importPlaylistAsync(() -> {
+            java.io.InputStream inputStream = contentResolver.openInputStream(uri);
+            if (inputStream == null) {
+                throw new java.io.FileNotFoundException(uri.toString());
+            }
+            return new java.io.InputStreamReader(inputStream, java.nio.charset.StandardCharsets.UTF_8);
+        }, this::showImportResult);
+    }
+    
+    private void showImportResult(NetworkLinkManager.ImportResult result) {
+        if (isFinishing())
+            return;
+        String message;
+        if (result.error != null) {
+            message = "Unable to read playlist";
+        } else if (result.streamManifest) {
+            message = "This file is a single HLS stream, add its URL instead";
+        } else if (result.added == 0 && result.duplicates == 0) {
+            message = "No video URLs found";
+        } else {
+            message = "Added " + result.added + " links to library";
+            if (result.duplicates > 0) {
+                message += ", " + result.duplicates + " already present";
+            }
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
 
+    private void importToLibrary(final List<Uri> uris) {
+        if (uris.isEmpty())
+            return;
+        Toast.makeText(this, "Importing " + uris.size() + (uris.size() == 1 ? " file" : " files") + " to library", Toast.LENGTH_SHORT).show();
+        final LibraryManager libraryManager = new LibraryManager(this);
+        final LibraryManager.ImportCallback callback = new LibraryManager.ImportCallback() {
+            int finished;
+            int failed;
+            int duplicates;
+            
+            @Override
+            public void onImportProgress(long bytesCopied, long totalBytes, long bytesPerSecond) {
+            }
+            
+            @Override
+            public void onImportFinished(File file, boolean duplicate, Exception error) {
+                finished++;
+                if (file == null) {
+                    failed++;
+                } else if (duplicate) {
+                    duplicates++;
+                }
+                // New files show up in the library through its directory scan
+                if (finished == uris.size() && !isFinishing()) {
+                    String message = "Imported " + (finished - failed - duplicates) + " of " + finished + (finished == 1 ? " file" : " files");
+                    if (duplicates > 0) {
+                        message += ", " + duplicates + " already in library";
+                    }
+                    Toast.makeText(PlayerActivity.this, message, Toast.LENGTH_LONG).show();
+                }
+            }
+        };
+        for (Uri uri : uris) {
+            libraryManager.importUri(uri, callback);
+        }
+    }
+    
     void showLibraryDialog() {
         final AlertDialog.Builder builder = new AlertDialog.Builder(PlayerActivity.this);
         builder.setTitle("Media Library");
         
-        // Create ListView for library content
-        ListView listView = new ListView(this);
-        
-        // Prepare library items (combine local files and network links)
-        List<Object> libraryItems = new ArrayList<>();
+        // Create RecyclerView for library content
+        final RecyclerView recyclerView = new RecyclerView(this);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
         
-        // Add local files section - use app's private library directory for downloaded files
-        LibraryManager libraryManager = new LibraryManager(this);
-        File[] localFiles = libraryManager.getLibraryDirectory().listFiles();
-        if (localFiles != null && localFiles.length > 0) {
-            libraryItems.add("Local Files");
-            for (File file : localFiles) {
-                if (file.isFile()) {
-                    libraryItems.add(file);
-                }
-            }
-        }
+        // Copy videos picked through the system file picker into the library
+        final android.widget.Button importButton = new android.widget.Button(this);
+        importButton.setText("Import video files");
         
-        // Add network links section
-        List<NetworkVideoLink> networkLinks = getNetworkLinkManager().getAllLinks();
-        if (!networkLinks.isEmpty()) {
-            libraryItems.add("Network Links");
-            libraryItems.addAll(networkLinks);
-        }
+        // Local files are listed by the background library scan, the last snapshot is shown right away
+        final LibraryScanner libraryScanner = StoreBootstrap.getLibraryScanner(this);
         
         // Create and set up the adapter
-        LibraryAdapter adapter = new LibraryAdapter(this, libraryItems,
+        final LibraryAdapter adapter = new LibraryAdapter(this, getNetworkLinkManager().getThumbnailLoader(),
             new LibraryAdapter.OnItemClickListener() {
                 @Override
                 public void onLocalFileClick(File file) {
-                    // Handle local file selection
-                    Uri fileUri = Uri.fromFile(file);
-                    mPrefs.updateMedia(PlayerActivity.this, fileUri, null);
-                    initializePlayer();
+                    playLibraryFile(file);
                 }
                 
                 @Override
@@ -2398,8 +2555,8 @@ public class PlayerActivity extends Activity {
             new LibraryAdapter.OnItemLongClickListener() {
                 @Override
                 public boolean onLocalFileLongClick(File file) {
-                    // Handle local file long click if needed
-                    return false;
+                    showLocalFileOptionsDialog(file);
+                    return true;
                 }
                 
                 @Override
@@ -2410,10 +2567,48 @@ public class PlayerActivity extends Activity {
                 }
             });
         
-        listView.setAdapter(adapter);
+        recyclerView.setAdapter(adapter);
+        // Network links are a shared snapshot, only the loaded pages are copied
+        adapter.submit(libraryScanner.getEntries(), getNetworkLinkManager().getAllLinks());
+        
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            int lastFirstVisibleItem = -1;
+            int lastLastVisibleItem = -1;
+            
+            @Override
+            public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+                final int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+                final int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if (firstVisibleItem == RecyclerView.NO_POSITION
+                        || (firstVisibleItem == lastFirstVisibleItem && lastVisibleItem == lastLastVisibleItem)) {
+                    return;
+                }
+                lastFirstVisibleItem = firstVisibleItem;
+                lastLastVisibleItem = lastVisibleItem;
+                
+                // Load the next page before reaching the end
+                if (lastVisibleItem >= adapter.getItemCount() - LibraryAdapter.PAGE_SIZE / 4) {
+                    view.post(adapter::loadMore);
+                }
+                
+                // Extract thumbnails of the links on screen first
+                List<String> visibleLinkIds = new ArrayList<>();
+                for (int i = firstVisibleItem; i <= lastVisibleItem && i < adapter.getItemCount(); i++) {
+                    Object item = adapter.getItem(i);
+                    if (item instanceof NetworkVideoLink) {
+                        visibleLinkIds.add(((NetworkVideoLink) item).getId());
+                    }
+                }
+                getNetworkLinkManager().prioritizeThumbnails(visibleLinkIds);
+            }
+        });
         
         // Set dialog content
-        builder.setView(listView);
+        android.widget.LinearLayout layout = new android.widget.LinearLayout(this);
+        layout.setOrientation(android.widget.LinearLayout.VERTICAL);
+        layout.addView(importButton);
+        layout.addView(recyclerView);
+        builder.setView(layout);
         
         // Add action buttons
         builder.setPositiveButton("Add Network URL", (dialog, which) -> {
@@ -2426,10 +2621,81 @@ public class PlayerActivity extends Activity {
         
         builder.setNegativeButton(android.R.string.cancel, (dialog, which) -> {});
         
+        // Links are updated in the background as new versions, refresh the rows once per burst of changes
+        final NetworkLinkManager.OnLinkChangedListener linkChangedListener = new NetworkLinkManager.OnLinkChangedListener() {
+            boolean refreshPending;
+            
+            @Override
+            public void onLinkChanged(NetworkVideoLink link) {
+                if (refreshPending)
+                    return;
+                refreshPending = true;
+                recyclerView.post(() -> {
+                    refreshPending = false;
+                    // Diffed in the background, only changed rows are rebound
+                    adapter.submitNetworkLinks(getNetworkLinkManager().getAllLinks());
+                });
+            }
+        };
+        getNetworkLinkManager().addOnLinkChangedListener(linkChangedListener);
+        final LibraryScanner.OnLibraryChangedListener libraryChangedListener = adapter::submitLocalFiles;
+        libraryScanner.addOnLibraryChangedListener(libraryChangedListener);
+        // Pick up changes made while the observer wasn't watching yet
+        libraryScanner.scan();
+        
         final AlertDialog dialog = builder.create();
+        importButton.setOnClickListener(view -> {
+            dialog.dismiss();
+            enableRotation();
+            final Intent intent = createBaseFileIntent(Intent.ACTION_OPEN_DOCUMENT, null);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("video/*");
+            intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+            safelyStartActivityForResult(intent, REQUEST_CHOOSER_LIBRARY_IMPORT);
+        });
+        dialog.setOnDismissListener(dialogInterface -> {
+            getNetworkLinkManager().removeOnLinkChangedListener(linkChangedListener);
+            libraryScanner.removeOnLibraryChangedListener(libraryChangedListener);
+            getNetworkLinkManager().prioritizeThumbnails(Collections.emptyList());
+        });
         dialog.show();
     }
     
+    private void playLibraryFile(File file) {
+        Uri fileUri = Uri.fromFile(file);
+        mPrefs.updateMedia(PlayerActivity.this, fileUri, null);
+        initializePlayer();
+    }
+    
+    private void showLocalFileOptionsDialog(File file) {
+        final LibraryManager libraryManager = new LibraryManager(this);
+        final boolean pinned = libraryManager.isPinned(file);
+        final AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(file.getName());
+        
+        String[] options = {"Play", pinned ? "Unpin" : "Pin (never remove to free space)", "Delete"};
+        
+        builder.setItems(options, (dialog, which) -> {
+            switch (which) {
+                case 0: // Play
+                    playLibraryFile(file);
+                    break;
+                case 1: // Pin
+                    libraryManager.setPinned(file, !pinned);
+                    break;
+                case 2: // Delete
+                    // The library scan picks up the removal
+                    if (libraryManager.removeMediaFromLibrary(file.getName())) {
+                        Toast.makeText(this, "File removed from library", Toast.LENGTH_SHORT).show();
+                    }
+                    break;
+            }
+        });
+        
+        builder.setNegativeButton(android.R.string.cancel, null);
+        builder.create().show();
+    }
+    
     private void showNetworkLinkOptionsDialog(NetworkVideoLink link) {
         final AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle(link.getDisplayTitle());
@@ -2447,7 +2713,7 @@ public class PlayerActivity extends Activity {
                     showEditTitleDialog(link);
                     break;
                 case 2: // Delete
-                    getNetworkLinkManager().removeLink(link.getUrl());
+                    getNetworkLinkManager().removeLink(link.getId());
                     Toast.makeText(this, "Link removed from library", Toast.LENGTH_SHORT).show();
                     break;
                 case 3: // Copy URL
@@ -2478,8 +2744,7 @@ public class PlayerActivity extends Activity {
         builder.setPositiveButton(android.R.string.ok, (dialog, which) -> {
             String newTitle = editText.getText().toString().trim();
             if (!newTitle.isEmpty()) {
-                link.setTitle(newTitle);
-                getNetworkLinkManager().updateLink(link);
+                getNetworkLinkManager().updateLinkTitle(link.getId(), newTitle);
                 Toast.makeText(this, "Title updated", Toast.LENGTH_SHORT).show();
             }
         });
@@ -2613,7 +2878,7 @@ public class PlayerActivity extends Activity {
     // Network Link Manager for persistent storage of network video URLs
     public NetworkLinkManager getNetworkLinkManager() {
         if (networkLinkManager == null) {
-            networkLinkManager = new NetworkLinkManager(this);
+            networkLinkManager = StoreBootstrap.getNetworkLinkManager(this);
         }
         return networkLinkManager;
     }
@@ -0,0 +1,13 @@
+package com.brouken.player;
+
+import android.app.Application;
+
+public class PlayerApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Start reading preferences and the link library while the activity is still being created
+        StoreBootstrap.start(this);
+    }
+}
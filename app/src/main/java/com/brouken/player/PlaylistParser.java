@@ -0,0 +1,121 @@
+package com.brouken.player;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for M3U/M3U8 playlists and plain URL lists (one or more URLs per line).
+ * Input is read line by line, so large playlists are never held in memory as a whole.
+ */
+class PlaylistParser {
+
+    static class Entry {
+        final String url;
+        final String title;
+        final long durationMs;
+
+        Entry(String url, String title, long durationMs) {
+            this.url = url;
+            this.title = title;
+            this.durationMs = durationMs;
+        }
+    }
+
+    static class Result {
+        final List<Entry> entries = new ArrayList<>();
+        // HLS media/master playlists describe a single stream and must not be imported as a list
+        boolean streamManifest;
+    }
+
+    static Result parse(Reader reader) throws IOException {
+        final Result result = new Result();
+        final BufferedReader bufferedReader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+
+        boolean pendingExtInf = false;
+        String pendingTitle = null;
+        long pendingDurationMs = -1;
+        String line;
+        boolean firstLine = true;
+        while ((line = bufferedReader.readLine()) != null) {
+            if (firstLine && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                line = line.substring(1);
+            }
+            firstLine = false;
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+
+            if (line.startsWith("#")) {
+                if (line.startsWith("#EXTINF:")) {
+                    pendingExtInf = true;
+                    pendingDurationMs = parseExtInfDuration(line);
+                    pendingTitle = parseExtInfTitle(line);
+                } else if (line.startsWith("#EXT-X-TARGETDURATION") || line.startsWith("#EXT-X-STREAM-INF")) {
+                    result.streamManifest = true;
+                    result.entries.clear();
+                    return result;
+                }
+                continue;
+            }
+
+            if (pendingExtInf) {
+                // Entry line of an #EXTINF pair is the location as a whole
+                result.entries.add(new Entry(line, pendingTitle, pendingDurationMs));
+                pendingExtInf = false;
+                pendingTitle = null;
+                pendingDurationMs = -1;
+            } else {
+                addUrls(result.entries, line);
+            }
+        }
+        return result;
+    }
+
+    private static void addUrls(List<Entry> entries, String line) {
+        int start = -1;
+        for (int i = 0; i <= line.length(); i++) {
+            boolean whitespace = i == line.length() || Character.isWhitespace(line.charAt(i));
+            if (!whitespace && start < 0) {
+                start = i;
+            } else if (whitespace && start >= 0) {
+                String token = line.substring(start, i);
+                if (token.contains("://")) {
+                    entries.add(new Entry(token, null, -1));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    // #EXTINF:<seconds> [attributes],<title>
+    private static long parseExtInfDuration(String line) {
+        int end = 8;
+        while (end < line.length() && (Character.isDigit(line.charAt(end)) || line.charAt(end) == '.' || line.charAt(end) == '-')) {
+            end++;
+        }
+        try {
+            double seconds = Double.parseDouble(line.substring(8, end));
+            return seconds > 0 ? (long) (seconds * 1000) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String parseExtInfTitle(String line) {
+        // Attribute values may contain commas, so find the first one outside of quotes
+        boolean quoted = false;
+        for (int i = 8; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                String title = line.substring(i + 1).trim();
+                return title.isEmpty() ? null : title;
+            }
+        }
+        return null;
+    }
+}
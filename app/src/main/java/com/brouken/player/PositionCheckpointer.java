@@ -0,0 +1,76 @@
+package com.brouken.player;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.media3.common.C;
+import androidx.media3.common.Player;
+
+/**
+ * Periodically records the playback position while playing so that a crash,
+ * low memory kill or power loss does not lose the progress of the whole session.
+ * Writes go through {@link Prefs#updatePosition(long)}, which persists off the main thread.
+ */
+class PositionCheckpointer {
+
+    static final long CHECKPOINT_INTERVAL_MS = 10_000;
+    // Positions closer than this to the last checkpoint are not worth a write
+    static final long MIN_POSITION_DELTA_MS = 2_000;
+
+    private final Prefs prefs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private long lastPosition = C.TIME_UNSET;
+    private boolean running;
+
+    private final Runnable checkpointRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkpoint(false);
+            if (running) {
+                handler.postDelayed(this, CHECKPOINT_INTERVAL_MS);
+            }
+        }
+    };
+
+    PositionCheckpointer(Prefs prefs) {
+        this.prefs = prefs;
+    }
+
+    void start() {
+        if (running)
+            return;
+        running = true;
+        handler.postDelayed(checkpointRunnable, CHECKPOINT_INTERVAL_MS);
+    }
+
+    void stop() {
+        running = false;
+        handler.removeCallbacks(checkpointRunnable);
+    }
+
+    /**
+     * Forget the last recorded position, e.g. when new media is loaded
+     */
+    void reset() {
+        lastPosition = C.TIME_UNSET;
+    }
+
+    /**
+     * Record the current position
+     * @param force write even if the position moved less than {@link #MIN_POSITION_DELTA_MS} (pause, seek)
+     */
+    void checkpoint(boolean force) {
+        final Player player = PlayerActivity.player;
+        if (player == null || !PlayerActivity.haveMedia || !player.isCurrentMediaItemSeekable())
+            return;
+
+        final long position = player.getCurrentPosition();
+        if (lastPosition != C.TIME_UNSET) {
+            final long delta = Math.abs(position - lastPosition);
+            if (delta == 0 || (!force && delta < MIN_POSITION_DELTA_MS))
+                return;
+        }
+        lastPosition = position;
+        prefs.updatePosition(position);
+    }
+}
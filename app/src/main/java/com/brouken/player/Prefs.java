@@ -9,12 +9,17 @@ import android.preference.PreferenceManager;
 import androidx.media3.exoplayer.DefaultRenderersFactory;
 import androidx.media3.ui.AspectRatioFrameLayout;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.LinkedHashMap;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 class Prefs {
     // Previously used
@@ -47,10 +52,17 @@ class Prefs {
     private static final String PREF_KEY_LANGUAGE_AUDIO = "languageAudio";
     private static final String PREF_KEY_SUBTITLE_STYLE_EMBEDDED = "subtitleStyleEmbedded";
     private static final String PREF_KEY_SUBTITLE_STYLE_BOLD = "subtitleStyleBold";
+    // Read by LibraryManager, value in MB, 0 for unlimited
+    static final String PREF_KEY_LIBRARY_QUOTA = "libraryQuota";
 
     public static final String TRACK_DEFAULT = "default";
     public static final String TRACK_DEVICE = "device";
 
+    private static final String POSITIONS_FILE = "positions";
+
+    // Single writer so position checkpoints hit the disk in order and never on the main thread
+    private static final ExecutorService positionsExecutor = Executors.newSingleThreadExecutor();
+
     final Context mContext;
     final SharedPreferences mSharedPreferences;
 
@@ -83,6 +95,7 @@ class Prefs {
     public boolean subtitleStyleBold = false;
 
     private LinkedHashMap positions;
+    private Future<LinkedHashMap> positionsLoader;
 
     public boolean persistentMode = true;
     public long nonPersitentPosition = -1L;
@@ -91,7 +104,8 @@ class Prefs {
         mContext = context;
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         loadSavedPreferences();
-        loadPositions();
+        // Positions are only needed once media is loaded, so read them in the background
+        positionsLoader = positionsExecutor.submit(this::loadPositions);
     }
 
     private void loadSavedPreferences() {
@@ -180,6 +194,7 @@ class Prefs {
         if (mediaUri == null)
             return;
 
+        final LinkedHashMap positions = getPositions();
         while (positions.size() > 100)
             positions.remove(positions.keySet().toArray()[0]);
 
@@ -215,35 +230,78 @@ class Prefs {
     }
 
     private void savePositions() {
+        final LinkedHashMap snapshot = new LinkedHashMap(getPositions());
+        positionsExecutor.execute(() -> writePositions(snapshot));
+    }
+
+    private void writePositions(final LinkedHashMap snapshot) {
+        // Write to a temporary file and rename so a crash mid-write never corrupts saved positions
+        final File file = new File(mContext.getFilesDir(), POSITIONS_FILE);
+        final File tmpFile = new File(mContext.getFilesDir(), POSITIONS_FILE + ".tmp");
         try {
-            FileOutputStream fos = mContext.openFileOutput("positions", Context.MODE_PRIVATE);
+            FileOutputStream fos = new FileOutputStream(tmpFile);
             ObjectOutputStream os = new ObjectOutputStream(fos);
-            os.writeObject(positions);
+            os.writeObject(snapshot);
+            os.flush();
+            fos.getFD().sync();
             os.close();
             fos.close();
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+            }
         } catch (Exception e) {
             e.printStackTrace();
+            tmpFile.delete();
         }
     }
 
-    private void loadPositions() {
+    private LinkedHashMap loadPositions() {
+        return readPositions(mContext);
+    }
+
+    /**
+     * Read the saved positions, keyed by media uri, without a Prefs instance. Reads from disk.
+     */
+    static LinkedHashMap readPositions(Context context) {
         try {
-            FileInputStream fis = mContext.openFileInput("positions");
+            FileInputStream fis = context.openFileInput(POSITIONS_FILE);
             ObjectInputStream is = new ObjectInputStream(fis);
-            positions = (LinkedHashMap) is.readObject();
+            LinkedHashMap loaded = (LinkedHashMap) is.readObject();
             is.close();
             fis.close();
+            return loaded;
         } catch (Exception e) {
             e.printStackTrace();
-            positions = new LinkedHashMap(10);
+            return new LinkedHashMap(10);
         }
     }
 
+    private LinkedHashMap getPositions() {
+        if (positions == null) {
+            try {
+                positions = positionsLoader.get();
+            } catch (ExecutionException | InterruptedException e) {
+                e.printStackTrace();
+                positions = new LinkedHashMap(10);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Saved position of any media, 0 if there is none
+     */
+    public long getPosition(final Uri uri) {
+        final Object val = getPositions().get(uri.toString());
+        return val != null ? (long) val : 0L;
+    }
+
     public long getPosition() {
         if (!persistentMode) {
             return nonPersitentPosition;
         }
 
+        final LinkedHashMap positions = getPositions();
         Object val = positions.get(mediaUri.toString());
         if (val != null)
             return (long) val;
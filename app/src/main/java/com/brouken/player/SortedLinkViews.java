@@ -0,0 +1,188 @@
+package com.brouken.player;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorted views of the links for every {@link NetworkLinkManager.SortOrder}.
+ * A view is sorted once when it is first requested and then kept sorted by binary insertion,
+ * so switching between orders does not sort again. Sort keys are captured when a link is added,
+ * which keeps removal exact even if the link object has been modified since.
+ */
+class SortedLinkViews {
+
+    private static class Entry {
+        final NetworkVideoLink link;
+        final String id;
+        final long dateAdded;
+        final long lastAccessed;
+        final int accessCount;
+        final String title;
+        // Only computed once a title view is in use
+        CollationKey titleKey;
+
+        Entry(NetworkVideoLink link, String title, CollationKey titleKey) {
+            this.link = link;
+            this.id = link.getId();
+            this.dateAdded = link.getDateAdded();
+            this.lastAccessed = link.getLastAccessed();
+            this.accessCount = link.getAccessCount();
+            this.title = title;
+            this.titleKey = titleKey;
+        }
+    }
+
+    // Case-insensitive like compareToIgnoreCase, but locale aware; keys compare as plain bytes
+    private final Collator collator;
+    private final Map<String, Entry> entriesById = new HashMap<>();
+    private final EnumMap<NetworkLinkManager.SortOrder, List<Entry>> views = new EnumMap<>(NetworkLinkManager.SortOrder.class);
+    // Link lists handed out to callers, rebuilt from the view after a change
+    private final EnumMap<NetworkLinkManager.SortOrder, List<NetworkVideoLink>> snapshots = new EnumMap<>(NetworkLinkManager.SortOrder.class);
+
+    SortedLinkViews() {
+        collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+    }
+
+    /**
+     * Add a link or move a changed one to its new position in every built view
+     */
+    synchronized void put(NetworkVideoLink link) {
+        Entry previous = entriesById.get(link.getId());
+        String title = link.getDisplayTitle();
+        // Collation keys are relatively expensive, reuse the previous one unless the title changed
+        CollationKey titleKey = null;
+        if (previous != null && previous.title.equals(title)) {
+            titleKey = previous.titleKey;
+        } else if (views.containsKey(NetworkLinkManager.SortOrder.TITLE_ASC) || views.containsKey(NetworkLinkManager.SortOrder.TITLE_DESC)) {
+            titleKey = collator.getCollationKey(title);
+        }
+        Entry entry = new Entry(link, title, titleKey);
+        entriesById.put(entry.id, entry);
+
+        for (Map.Entry<NetworkLinkManager.SortOrder, List<Entry>> view : views.entrySet()) {
+            Comparator<Entry> comparator = comparatorFor(view.getKey());
+            List<Entry> entries = view.getValue();
+            if (previous != null) {
+                removeEntry(entries, previous, comparator);
+            }
+            int index = Collections.binarySearch(entries, entry, comparator);
+            entries.add(index < 0 ? -index - 1 : index, entry);
+        }
+        snapshots.clear();
+    }
+
+    synchronized void remove(String linkId) {
+        Entry previous = entriesById.remove(linkId);
+        if (previous == null)
+            return;
+        for (Map.Entry<NetworkLinkManager.SortOrder, List<Entry>> view : views.entrySet()) {
+            removeEntry(view.getValue(), previous, comparatorFor(view.getKey()));
+        }
+        snapshots.clear();
+    }
+
+    synchronized void clear() {
+        entriesById.clear();
+        views.clear();
+        snapshots.clear();
+    }
+
+    /**
+     * @return unmodifiable list of the links in the given order
+     */
+    synchronized List<NetworkVideoLink> get(NetworkLinkManager.SortOrder sortOrder) {
+        List<NetworkVideoLink> snapshot = snapshots.get(sortOrder);
+        if (snapshot != null)
+            return snapshot;
+
+        List<Entry> entries = views.get(sortOrder);
+        if (entries == null) {
+            if (sortOrder == NetworkLinkManager.SortOrder.TITLE_ASC || sortOrder == NetworkLinkManager.SortOrder.TITLE_DESC) {
+                for (Entry entry : entriesById.values()) {
+                    if (entry.titleKey == null) {
+                        entry.titleKey = collator.getCollationKey(entry.title);
+                    }
+                }
+            }
+            entries = new ArrayList<>(entriesById.values());
+            Collections.sort(entries, comparatorFor(sortOrder));
+            views.put(sortOrder, entries);
+        }
+
+        List<NetworkVideoLink> links = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            links.add(entry.link);
+        }
+        snapshot = Collections.unmodifiableList(links);
+        snapshots.put(sortOrder, snapshot);
+        return snapshot;
+    }
+
+    private static void removeEntry(List<Entry> entries, Entry entry, Comparator<Entry> comparator) {
+        // Ties are broken by id, so the captured keys find exactly this entry
+        int index = Collections.binarySearch(entries, entry, comparator);
+        if (index >= 0) {
+            entries.remove(index);
+        }
+    }
+
+    private static Comparator<Entry> comparatorFor(NetworkLinkManager.SortOrder sortOrder) {
+        switch (sortOrder) {
+            case DATE_ADDED_ASC:
+                return DATE_ADDED_ASC;
+            case TITLE_ASC:
+                return TITLE_ASC;
+            case TITLE_DESC:
+                return TITLE_DESC;
+            case MOST_ACCESSED:
+                return MOST_ACCESSED;
+            case LAST_ACCESSED:
+                return LAST_ACCESSED;
+            case DATE_ADDED_DESC:
+            default:
+                return DATE_ADDED_DESC;
+        }
+    }
+
+    private static int compareIds(Entry a, Entry b) {
+        return a.id.compareTo(b.id);
+    }
+
+    private static final Comparator<Entry> DATE_ADDED_DESC = (a, b) -> {
+        int result = Long.compare(b.dateAdded, a.dateAdded);
+        return result != 0 ? result : compareIds(a, b);
+    };
+
+    private static final Comparator<Entry> DATE_ADDED_ASC = (a, b) -> {
+        int result = Long.compare(a.dateAdded, b.dateAdded);
+        return result != 0 ? result : compareIds(a, b);
+    };
+
+    private static final Comparator<Entry> TITLE_ASC = (a, b) -> {
+        int result = a.titleKey.compareTo(b.titleKey);
+        return result != 0 ? result : compareIds(a, b);
+    };
+
+    private static final Comparator<Entry> TITLE_DESC = (a, b) -> {
+        int result = b.titleKey.compareTo(a.titleKey);
+        return result != 0 ? result : compareIds(a, b);
+    };
+
+    private static final Comparator<Entry> MOST_ACCESSED = (a, b) -> {
+        int result = Integer.compare(b.accessCount, a.accessCount);
+        return result != 0 ? result : compareIds(a, b);
+    };
+
+    private static final Comparator<Entry> LAST_ACCESSED = (a, b) -> {
+        int result = Long.compare(b.lastAccessed, a.lastAccessed);
+        return result != 0 ? result : compareIds(a, b);
+    };
+}
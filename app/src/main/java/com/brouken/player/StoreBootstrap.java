@@ -0,0 +1,111 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the persistent stores on a background executor at process start.
+ * Callers block on the returned data only at the point they actually need it.
+ */
+final class StoreBootstrap {
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    private static Future<Prefs> prefsFuture;
+    private static Future<NetworkLinkManager> networkLinkManagerFuture;
+    private static NetworkLinkManager networkLinkManager;
+    private static LibraryScanner libraryScanner;
+    private static boolean prefsTaken;
+    private static long startTime;
+
+    interface PositionsCallback {
+        /**
+         * Called on the main thread
+         * @param positions saved playback positions keyed by media uri
+         */
+        void onPositionsLoaded(Map<String, Long> positions);
+    }
+
+    private StoreBootstrap() {
+    }
+
+    static synchronized void start(final Context context) {
+        if (prefsFuture != null)
+            return;
+        final Context appContext = context.getApplicationContext();
+        startTime = SystemClock.elapsedRealtime();
+        prefsFuture = executor.submit(() -> new Prefs(appContext));
+        networkLinkManagerFuture = executor.submit(() -> new NetworkLinkManager(appContext));
+        getLibraryScanner(appContext).scan();
+    }
+
+    /**
+     * Returns the preloaded {@link Prefs} to the first caller and a freshly read instance afterwards,
+     * as activity instances mutate their Prefs (e.g. non-persistent mode for API calls).
+     */
+    static Prefs takePrefs(final Context context) {
+        final Future<Prefs> future;
+        synchronized (StoreBootstrap.class) {
+            future = prefsTaken ? null : prefsFuture;
+            prefsTaken = true;
+        }
+        if (future != null) {
+            final long waitStart = SystemClock.elapsedRealtime();
+            final Prefs prefs = await(future);
+            Utils.log("Prefs ready " + (SystemClock.elapsedRealtime() - startTime) + " ms after process start, waited "
+                    + (SystemClock.elapsedRealtime() - waitStart) + " ms");
+            if (prefs != null)
+                return prefs;
+        }
+        return new Prefs(context.getApplicationContext());
+    }
+
+    static synchronized NetworkLinkManager getNetworkLinkManager(final Context context) {
+        if (networkLinkManager == null) {
+            start(context);
+            networkLinkManager = await(networkLinkManagerFuture);
+            if (networkLinkManager == null)
+                networkLinkManager = new NetworkLinkManager(context.getApplicationContext());
+        }
+        return networkLinkManager;
+    }
+
+    /**
+     * Read the saved playback positions in the background, for screens that show progress
+     * without the player's Prefs
+     */
+    @SuppressWarnings("unchecked")
+    static void loadPositions(final Context context, final PositionsCallback callback) {
+        final Context appContext = context.getApplicationContext();
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        executor.execute(() -> {
+            final Map<String, Long> positions = Prefs.readPositions(appContext);
+            mainHandler.post(() -> callback.onPositionsLoaded(positions));
+        });
+    }
+
+    static synchronized LibraryScanner getLibraryScanner(final Context context) {
+        if (libraryScanner == null) {
+            libraryScanner = new LibraryScanner(new File(context.getApplicationContext().getFilesDir(), LibraryManager.DIRECTORY_NAME));
+        }
+        return libraryScanner;
+    }
+
+    private static <T> T await(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.brouken.player;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts a representative video frame from network streams.
+ * Requests for links currently visible in the library are served first and
+ * only a few extractions run at the same time. An extraction that takes too long is given up,
+ * so a slow or unresponsive server can't hold the workers.
+ */
+class ThumbnailExtractor {
+    private static final String TAG = "ThumbnailExtractor";
+
+    private static final int MAX_CONCURRENT_EXTRACTIONS = 2;
+    // Seek to 10% of the video (intros and black frames are common at the very start), but not too far
+    private static final long MAX_FRAME_TIME_MS = 60_000;
+    private static final long EXTRACTION_TIMEOUT_MS = 20_000;
+
+    interface Callback {
+        /**
+         * Called on a worker thread
+         * @param frame extracted frame or null if extraction failed
+         * @param durationMs duration reported by the container or -1
+         */
+        void onExtracted(NetworkVideoLink link, Bitmap frame, long durationMs);
+    }
+
+    private final int width;
+    private final int height;
+    private final ThreadPoolExecutor executor;
+    // Runs the blocking retriever calls, a call that timed out keeps its thread until the server gives up
+    private final ExecutorService retrieverExecutor = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "FrameRetriever"));
+    private final Map<String, ExtractionTask> pendingTasks = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private Set<String> visibleLinkIds = Collections.emptySet();
+
+    ThumbnailExtractor(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.executor = new ThreadPoolExecutor(MAX_CONCURRENT_EXTRACTIONS, MAX_CONCURRENT_EXTRACTIONS,
+                30, TimeUnit.SECONDS, new PriorityBlockingQueue<>());
+        // Workers must exist because re-prioritized tasks are put back to the queue directly
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Queue frame extraction for a link, unless it is already queued
+     */
+    synchronized void request(NetworkVideoLink link, Callback callback) {
+        ExtractionTask task = new ExtractionTask(link, callback, sequence.incrementAndGet());
+        task.visible = visibleLinkIds.contains(link.getId());
+        if (pendingTasks.putIfAbsent(link.getId(), task) == null) {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Move queued requests for the given links to the front of the queue
+     */
+    synchronized void setVisibleLinks(Collection<String> linkIds) {
+        Set<String> previous = visibleLinkIds;
+        Set<String> current = new HashSet<>(linkIds);
+        visibleLinkIds = current;
+        for (String linkId : previous) {
+            if (!current.contains(linkId)) {
+                reprioritize(linkId, false);
+            }
+        }
+        for (String linkId : current) {
+            reprioritize(linkId, true);
+        }
+    }
+
+    private void reprioritize(String linkId, boolean visible) {
+        ExtractionTask task = pendingTasks.get(linkId);
+        if (task == null || task.visible == visible)
+            return;
+        // Priority must not change while the task is in the heap, so take it out first
+        if (executor.getQueue().remove(task)) {
+            task.visible = visible;
+            executor.getQueue().offer(task);
+        }
+    }
+
+    boolean isPending(String linkId) {
+        return pendingTasks.containsKey(linkId);
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+        retrieverExecutor.shutdownNow();
+    }
+
+    static boolean isSupported(NetworkVideoLink link) {
+        // Adaptive streaming manifests can't be opened by MediaMetadataRetriever
+        String url = link.getUrl().toLowerCase();
+        return !url.contains(".m3u8") && !url.contains(".mpd");
+    }
+
+    /**
+     * Decode a single frame, giving up after {@link #EXTRACTION_TIMEOUT_MS}
+     * @return frame or null if extraction failed or timed out
+     */
+    Bitmap extractFrameWithTimeout(String url, long[] durationOut) {
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        // Written by the retriever thread, only read once its result arrived
+        final long[] duration = new long[] { -1 };
+        Future<Bitmap> extraction = retrieverExecutor.submit(() -> extractFrame(retriever, url, duration));
+        try {
+            Bitmap frame = extraction.get(EXTRACTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            durationOut[0] = duration[0];
+            return frame;
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Frame extraction timed out for: " + url);
+            // Releasing aborts the pending network reads, it may block until they return so it doesn't run here.
+            // A frame that still arrives is left to the garbage collector.
+            retrieverExecutor.execute(() -> release(retriever));
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Frame extraction failed for: " + url, e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            extraction.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Decode a single frame. MediaMetadataRetriever reads network sources through
+     * HTTP range requests, so only the container index and the data around the chosen frame is downloaded.
+     */
+    private Bitmap extractFrame(MediaMetadataRetriever retriever, String url, long[] durationOut) {
+        try {
+            retriever.setDataSource(url, new HashMap<>());
+
+            long durationMs = -1;
+            String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            if (duration != null) {
+                try {
+                    durationMs = Long.parseLong(duration);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            durationOut[0] = durationMs;
+
+            long frameTimeUs = durationMs > 0 ? Math.min(durationMs / 10, MAX_FRAME_TIME_MS) * 1000 : 0;
+            if (Build.VERSION.SDK_INT >= 27) {
+                return retriever.getScaledFrameAtTime(frameTimeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, width, height);
+            }
+            Bitmap frame = retriever.getFrameAtTime(frameTimeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            return frame != null ? scaleToFit(frame) : null;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Frame extraction failed for: " + url, e);
+            return null;
+        } finally {
+            release(retriever);
+        }
+    }
+
+    private static void release(MediaMetadataRetriever retriever) {
+        try {
+            retriever.release();
+        } catch (Exception ignored) {
+        }
+    }
+
+    private Bitmap scaleToFit(Bitmap frame) {
+        float scale = Math.min((float) width / frame.getWidth(), (float) height / frame.getHeight());
+        if (scale >= 1f)
+            return frame;
+        Bitmap scaled = Bitmap.createScaledBitmap(frame, Math.round(frame.getWidth() * scale), Math.round(frame.getHeight() * scale), true);
+        frame.recycle();
+        return scaled;
+    }
+
+    private class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
+        final NetworkVideoLink link;
+        final Callback callback;
+        final long sequence;
+        volatile boolean visible;
+
+        ExtractionTask(NetworkVideoLink link, Callback callback, long sequence) {
+            this.link = link;
+            this.callback = callback;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(ExtractionTask other) {
+            if (visible != other.visible) {
+                return visible ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public void run() {
+            try {
+                long[] duration = new long[] { -1 };
+                Bitmap frame = extractFrameWithTimeout(link.getUrl(), duration);
+                callback.onExtracted(link, frame, duration[0]);
+            } catch (Exception e) {
+                Log.e(TAG, "Error extracting thumbnail for: " + link.getUrl(), e);
+            } finally {
+                pendingTasks.remove(link.getId());
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.brouken.player;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads list thumbnails of network links into ImageViews off the main thread.
+ * Decoded bitmaps are kept in a memory cache with a byte budget, a request is cancelled when
+ * its view is bound to another link, and bitmaps dropped from the cache are decoded into again.
+ * All methods must be called on the main thread.
+ */
+class ThumbnailLoader {
+
+    private static final int MAX_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+
+    private final ThumbnailStore store;
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, Bitmap> cache;
+    private final Map<ImageView, Request> requests = new WeakHashMap<>();
+    // Bitmaps currently shown, they must not be decoded into
+    private final Map<ImageView, Bitmap> displayedBitmaps = new WeakHashMap<>();
+    private final Map<Bitmap, Integer> displayCounts = new IdentityHashMap<>();
+    private final Set<Bitmap> evictedWhileDisplayed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ArrayDeque<Bitmap> reusableBitmaps = new ArrayDeque<>();
+    // Bumped when a link's thumbnail is replaced under the same path, e.g. a placeholder by the real frame
+    private final Map<String, Integer> versions = new HashMap<>();
+
+    private static class Request {
+        final String key;
+        Future<?> future;
+
+        Request(String key) {
+            this.key = key;
+        }
+    }
+
+    ThumbnailLoader(ThumbnailStore store) {
+        this.store = store;
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, MAX_CACHE_BYTES);
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (displayCounts.containsKey(oldValue)) {
+                    evictedWhileDisplayed.add(oldValue);
+                } else {
+                    offerReusable(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Show the thumbnail of the link in the view, with the placeholder until it is decoded
+     */
+    void load(NetworkVideoLink link, ImageView view, int placeholderResId) {
+        if (link.getThumbnailPath() == null) {
+            cancel(view);
+            show(view, null, placeholderResId);
+            return;
+        }
+
+        // The path changes when a thumbnail is first stored or converted, the version when it is replaced
+        Integer version = versions.get(link.getId());
+        final String key = link.getId() + "@" + link.getThumbnailPath() + "#" + (version == null ? 0 : version);
+        Request pending = requests.get(view);
+        if (pending != null && pending.key.equals(key))
+            return;
+        cancel(view);
+
+        Bitmap cached = cache.get(key);
+        if (cached != null) {
+            show(view, cached, placeholderResId);
+            return;
+        }
+
+        show(view, null, placeholderResId);
+        final Request request = new Request(key);
+        requests.put(view, request);
+        final String linkId = link.getId();
+        final String legacyPath = link.getThumbnailPath().endsWith(".jpg") ? link.getThumbnailPath() : null;
+        request.future = executor.submit(() -> {
+            Bitmap bitmap = decode(linkId, legacyPath);
+            mainHandler.post(() -> {
+                if (bitmap != null) {
+                    cache.put(key, bitmap);
+                }
+                // The view may have been bound to another link in the meantime
+                if (requests.get(view) != request)
+                    return;
+                requests.remove(view);
+                if (bitmap != null) {
+                    show(view, bitmap, placeholderResId);
+                }
+            });
+        });
+    }
+
+    /**
+     * Stop loading into the view, e.g. when its row is recycled for an item without thumbnail
+     */
+    void cancel(ImageView view) {
+        Request request = requests.remove(view);
+        if (request != null && request.future != null) {
+            request.future.cancel(false);
+        }
+    }
+
+    /**
+     * Decode the thumbnail of the link again, call after it was replaced in the store.
+     * Decodes already running keep their old key, so they can't cache the previous thumbnail as current.
+     */
+    void invalidate(String linkId) {
+        Integer version = versions.get(linkId);
+        versions.put(linkId, version == null ? 1 : version + 1);
+    }
+
+    void clear() {
+        cache.evictAll();
+        synchronized (reusableBitmaps) {
+            reusableBitmaps.clear();
+        }
+    }
+
+    private Bitmap decode(String linkId, String legacyPath) {
+        Bitmap reusable = pollReusable();
+        Bitmap bitmap = store.decodeSmall(linkId, reusable);
+        if (bitmap == null && legacyPath != null) {
+            // Not converted to the thumbnail store yet
+            bitmap = ThumbnailStore.decodeFile(legacyPath, ThumbnailStore.SMALL_WIDTH, ThumbnailStore.SMALL_HEIGHT);
+        }
+        if (reusable != null && bitmap != reusable) {
+            offerReusable(reusable);
+        }
+        return bitmap;
+    }
+
+    private void show(ImageView view, Bitmap bitmap, int placeholderResId) {
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+        } else {
+            view.setImageResource(placeholderResId);
+        }
+
+        Bitmap previous = bitmap != null ? displayedBitmaps.put(view, bitmap) : displayedBitmaps.remove(view);
+        if (previous == bitmap)
+            return;
+        if (bitmap != null) {
+            Integer count = displayCounts.get(bitmap);
+            displayCounts.put(bitmap, count == null ? 1 : count + 1);
+        }
+        if (previous != null) {
+            Integer count = displayCounts.get(previous);
+            if (count == null || count <= 1) {
+                displayCounts.remove(previous);
+                if (evictedWhileDisplayed.remove(previous)) {
+                    offerReusable(previous);
+                }
+            } else {
+                displayCounts.put(previous, count - 1);
+            }
+        }
+    }
+
+    private void offerReusable(Bitmap bitmap) {
+        if (!bitmap.isMutable())
+            return;
+        synchronized (reusableBitmaps) {
+            if (reusableBitmaps.size() < MAX_REUSABLE_BITMAPS) {
+                reusableBitmaps.push(bitmap);
+            }
+        }
+    }
+
+    private Bitmap pollReusable() {
+        synchronized (reusableBitmaps) {
+            return reusableBitmaps.poll();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.brouken.player;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores link thumbnails as WebP in two sizes. Detail thumbnails are single files, list row
+ * thumbnails are appended to one pack file with an append-only index, so a large library
+ * doesn't cost an inode and an open() per row. Decoding uses RGB_565 (thumbnails have no alpha)
+ * and subsampling to the requested size.
+ */
+class ThumbnailStore {
+    private static final String TAG = "ThumbnailStore";
+
+    static final int SMALL_WIDTH = 160;
+    static final int SMALL_HEIGHT = 90;
+
+    private static final String PACK_PREFIX = "thumbs_small.";
+    private static final String PACK_FILE = "thumbs_small.pack";
+    private static final String INDEX_FILE = "thumbs_small.idx";
+    // First index record after a compaction, its offset is the generation of the pack the index belongs to
+    private static final String GENERATION_RECORD = "#generation";
+    private static final int QUALITY = 75;
+    // Rewrite the pack once it holds more replaced/removed data than live data
+    private static final long MIN_COMPACT_GARBAGE_BYTES = 1024 * 1024;
+
+    private static class Slot {
+        final long offset;
+        final int length;
+
+        Slot(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final File dir;
+    private final Map<String, Slot> slots = new HashMap<>();
+    private RandomAccessFile pack;
+    private DataOutputStream index;
+    private long generation;
+    private long liveBytes;
+    private long garbageBytes;
+
+    ThumbnailStore(File dir) {
+        this.dir = dir;
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+    }
+
+    /**
+     * Encode and store both sizes of a thumbnail. The bitmap is not recycled.
+     * @return path of the detail thumbnail or null on failure
+     */
+    synchronized String put(String linkId, Bitmap thumbnail) {
+        try {
+            open();
+            Bitmap small = scaleToFit(thumbnail, SMALL_WIDTH, SMALL_HEIGHT);
+            byte[] smallData = encode(small);
+            if (small != thumbnail) {
+                small.recycle();
+            }
+            append(linkId, smallData);
+
+            File detailFile = getDetailFile(linkId);
+            try (FileOutputStream out = new FileOutputStream(detailFile)) {
+                thumbnail.compress(webpFormat(), QUALITY, out);
+            }
+            compactIfNeeded();
+            return detailFile.getAbsolutePath();
+        } catch (IOException e) {
+            Log.e(TAG, "Error storing thumbnail of " + linkId, e);
+            return null;
+        }
+    }
+
+    boolean hasSmall(String linkId) {
+        synchronized (this) {
+            try {
+                open();
+            } catch (IOException e) {
+                return false;
+            }
+            return slots.containsKey(linkId);
+        }
+    }
+
+    /**
+     * Decode the list row thumbnail
+     * @return bitmap or null if there is none
+     */
+    Bitmap decodeSmall(String linkId) {
+        return decodeSmall(linkId, null);
+    }
+
+    /**
+     * Decode the list row thumbnail into a mutable bitmap
+     * @param reusable bitmap to decode into if it is large enough, may be null
+     * @return bitmap (possibly the reusable one) or null if there is none
+     */
+    Bitmap decodeSmall(String linkId, Bitmap reusable) {
+        byte[] data;
+        synchronized (this) {
+            try {
+                open();
+                Slot slot = slots.get(linkId);
+                if (slot == null)
+                    return null;
+                data = new byte[slot.length];
+                pack.seek(slot.offset);
+                pack.readFully(data);
+            } catch (IOException e) {
+                Log.w(TAG, "Error reading thumbnail of " + linkId, e);
+                return null;
+            }
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        if (reusable != null) {
+            options.inBitmap = reusable;
+            try {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            } catch (IllegalArgumentException e) {
+                // Too small for this image
+                options.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * Decode an image file subsampled to at least the requested size
+     */
+    static Bitmap decodeFile(String path, int reqWidth, int reqHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    File getDetailFile(String linkId) {
+        return new File(dir, "thumb_" + linkId + ".webp");
+    }
+
+    synchronized void remove(String linkId) {
+        getDetailFile(linkId).delete();
+        // Thumbnails of older versions
+        new File(dir, "thumb_" + linkId + ".jpg").delete();
+        try {
+            open();
+            Slot slot = slots.remove(linkId);
+            if (slot != null) {
+                liveBytes -= slot.length;
+                garbageBytes += slot.length;
+                writeIndexRecord(linkId, -1, -1);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error removing thumbnail of " + linkId, e);
+        }
+    }
+
+    synchronized void clear() {
+        closeFiles();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        slots.clear();
+        liveBytes = 0;
+        garbageBytes = 0;
+    }
+
+    private void open() throws IOException {
+        if (pack != null)
+            return;
+        File indexFile = new File(dir, INDEX_FILE);
+        generation = readGeneration(indexFile);
+        deleteStaleFiles();
+        pack = new RandomAccessFile(getPackFile(generation), "rw");
+        loadIndex(indexFile, pack.length());
+        index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+    }
+
+    private File getPackFile(long generation) {
+        // Packs written before compaction was generational have no number
+        return new File(dir, generation == 0 ? PACK_FILE : PACK_PREFIX + generation + ".pack");
+    }
+
+    private static long readGeneration(File indexFile) {
+        if (!indexFile.exists())
+            return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            return GENERATION_RECORD.equals(in.readUTF()) ? in.readLong() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Remove packs of other generations and temporary files, left over if a compaction was interrupted
+     */
+    private void deleteStaleFiles() {
+        String currentPack = getPackFile(generation).getName();
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(PACK_PREFIX) && (name.endsWith(".pack") || name.endsWith(".tmp")) && !name.equals(currentPack)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void loadIndex(File indexFile, long packLength) {
+        slots.clear();
+        liveBytes = 0;
+        garbageBytes = 0;
+        if (!indexFile.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            while (true) {
+                String linkId = in.readUTF();
+                long offset = in.readLong();
+                int length = in.readInt();
+                Slot previous;
+                if (GENERATION_RECORD.equals(linkId)) {
+                    continue;
+                } else if (length < 0) {
+                    previous = slots.remove(linkId);
+                } else if (offset + length <= packLength) {
+                    previous = slots.put(linkId, new Slot(offset, length));
+                    liveBytes += length;
+                } else {
+                    // Data never made it to the pack
+                    continue;
+                }
+                if (previous != null) {
+                    liveBytes -= previous.length;
+                    garbageBytes += previous.length;
+                }
+            }
+        } catch (EOFException e) {
+            // End of index, a partially written last record is ignored
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading thumbnail index", e);
+        }
+    }
+
+    private void append(String linkId, byte[] data) throws IOException {
+        long offset = pack.length();
+        pack.seek(offset);
+        pack.write(data);
+        writeIndexRecord(linkId, offset, data.length);
+        Slot previous = slots.put(linkId, new Slot(offset, data.length));
+        liveBytes += data.length;
+        if (previous != null) {
+            liveBytes -= previous.length;
+            garbageBytes += previous.length;
+        }
+    }
+
+    private void writeIndexRecord(String linkId, long offset, int length) throws IOException {
+        index.writeUTF(linkId);
+        index.writeLong(offset);
+        index.writeInt(length);
+        index.flush();
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (garbageBytes < MIN_COMPACT_GARBAGE_BYTES || garbageBytes < liveBytes)
+            return;
+
+        // The new pair is written next to the current one. Renaming the index is the only step that
+        // switches packs, so an interrupted compaction leaves the old index and pack consistent.
+        final long newGeneration = generation + 1;
+        File indexFile = new File(dir, INDEX_FILE);
+        File newPackFile = getPackFile(newGeneration);
+        File newIndexFile = new File(dir, INDEX_FILE + ".tmp");
+        try (RandomAccessFile newPack = new RandomAccessFile(newPackFile, "rw");
+             FileOutputStream newIndexStream = new FileOutputStream(newIndexFile);
+             DataOutputStream newIndex = new DataOutputStream(new BufferedOutputStream(newIndexStream))) {
+            newPack.setLength(0);
+            newIndex.writeUTF(GENERATION_RECORD);
+            newIndex.writeLong(newGeneration);
+            newIndex.writeInt(0);
+            byte[] buffer = new byte[0];
+            for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+                Slot slot = entry.getValue();
+                if (buffer.length < slot.length) {
+                    buffer = new byte[slot.length];
+                }
+                pack.seek(slot.offset);
+                pack.readFully(buffer, 0, slot.length);
+                long offset = newPack.getFilePointer();
+                newPack.write(buffer, 0, slot.length);
+                newIndex.writeUTF(entry.getKey());
+                newIndex.writeLong(offset);
+                newIndex.writeInt(slot.length);
+            }
+            // Both must be on disk before the rename makes them current
+            newPack.getFD().sync();
+            newIndex.flush();
+            newIndexStream.getFD().sync();
+        } catch (IOException e) {
+            newPackFile.delete();
+            newIndexFile.delete();
+            throw e;
+        }
+
+        closeFiles();
+        if (newIndexFile.renameTo(indexFile)) {
+            getPackFile(generation).delete();
+        } else {
+            // The old pair is untouched, keep using it
+            Log.w(TAG, "Thumbnail pack compaction failed");
+            newPackFile.delete();
+            newIndexFile.delete();
+        }
+        // Reloads the slots from whichever index is current
+        open();
+    }
+
+    private void closeFiles() {
+        try {
+            if (index != null) {
+                index.close();
+            }
+            if (pack != null) {
+                pack.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing thumbnail pack", e);
+        }
+        index = null;
+        pack = null;
+    }
+
+    private static byte[] encode(Bitmap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 * 1024);
+        bitmap.compress(webpFormat(), QUALITY, out);
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat webpFormat() {
+        return Build.VERSION.SDK_INT >= 30 ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+
+    private static Bitmap scaleToFit(Bitmap bitmap, int width, int height) {
+        float scale = Math.min((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+        if (scale >= 1f)
+            return bitmap;
+        return Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+    }
+}
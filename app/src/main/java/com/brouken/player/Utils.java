@@ -21,13 +21,10 @@ import android.database.Cursor;
 import android.media.AudioManager;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
-import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 import android.os.LocaleList;
-import android.os.storage.StorageManager;
-import android.os.storage.StorageVolume;
 import android.provider.DocumentsContract;
 import android.provider.OpenableColumns;
 import android.util.Log;
@@ -780,18 +777,12 @@ class Utils {
         }
     }
 
+    /**
+     * Let the media scanner pick up files that changed since the last scan, rate-limited and in the background
+     */
     @RequiresApi(api = Build.VERSION_CODES.R)
     public static void scanMediaStorage(Context context) {
-        StorageManager storageManager = (StorageManager) context.getSystemService(Context.STORAGE_SERVICE);
-        List<StorageVolume> storageVolumes = storageManager.getStorageVolumes();
-        List<String> storagePaths = new ArrayList<>();
-        for (StorageVolume volume : storageVolumes) {
-            File directory = volume.getDirectory();
-            if (directory != null) {
-                storagePaths.add(directory.getAbsolutePath());
-            }
-        }
-        MediaScannerConnection.scanFile(context, storagePaths.toArray(new String[0]), new String[]{"*/*"}, null);
+        IncrementalMediaScan.scanIfNeeded(context);
     }
 
     public static float getFrameRate(Context context, Uri videoUri) {